@@ -1,11 +1,14 @@
 package com.howard.lsm;
 
+import com.howard.lsm.cache.BlockCache;
 import com.howard.lsm.cache.ShardedCache;
 import com.howard.lsm.config.LSMConfig;
 import com.howard.lsm.core.*;
 import com.howard.lsm.serialization.BinaryEncoder;
 import com.howard.lsm.storage.LevelManager;
 import com.howard.lsm.transaction.TransactionManager;
+import com.howard.lsm.transaction.WriteConflictException;
+import com.howard.lsm.utils.ByteUtils;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,8 +17,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 
 /**
  * LSM-Tree KV存储引擎主要实现类
@@ -33,19 +44,47 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * 1. 修复了锁的错误使用问题
  * 2. 完善了缓存一致性策略
  * 3. 增强了错误处理机制
+ *
+ * 并发模型：
+ * 1. 读操作不加锁，依次查找缓存、活跃内存表、不可变内存表和SSTable
+ * 2. 写操作之间并行执行，只持有内存表锁的共享模式和键所在分段的锁；
+ *    分段锁保证同一个键的WAL顺序与内存表顺序一致
+ * 3. 只有切换内存表时才独占内存表锁，等待进行中的写入完成后交换引用
+ * 4. 写满的内存表交给FlushManager在后台刷新，写入线程只在刷新队列已满时等待
+ * 5. putAsync/deleteAsync不等待WAL同步，返回在记录持久化后完成的Future
+ * 6. 长时间的读取使用快照：快照固定一个序列号，读取期间不持有任何全局锁，
+ *    刷新和压缩会保留活跃快照仍需要的旧版本
+ *
+ * 每次写入在分段锁内分配一个全局递增的序列号，随记录写入WAL，并作为内部键的一部分
+ * 保存在内存表和SSTable中。重启时从SSTable和WAL中恢复已分配的最大序列号。
  */
 public class LSMTree implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(LSMTree.class);
 
+    private static final int KEY_LOCK_STRIPES = 64;
+
     private final LSMConfig config;
-    private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
+
+    // 写入持有共享模式，切换内存表时持有独占模式
+    private final ReadWriteLock memTableLock = new ReentrantReadWriteLock();
+    // 按键分段的写锁，以及每个分段的写入版本号，用于检测读者回填缓存时的并发写入
+    private final ReentrantLock[] keyLocks = new ReentrantLock[KEY_LOCK_STRIPES];
+    private final AtomicLongArray keyVersions = new AtomicLongArray(KEY_LOCK_STRIPES);
+    // 最近一次写入分配的序列号
+    private final AtomicLong lastSequence = new AtomicLong(0);
+    // 已经全部进入内存表的序列号，快照取这个值
+    private final PublishedSequence publishedSequence = new PublishedSequence();
+    // 活跃的快照，刷新和压缩据此保留旧版本
+    private final SnapshotList snapshots = new SnapshotList();
 
     // 核心组件
-    private MemTable activeMemTable;
+    private volatile MemTable activeMemTable;
     private final WriteAheadLog wal;
     private final LevelManager levelManager;
+    private final FlushManager flushManager;
     private final CompactionManager compactionManager;
     private final ShardedCache<String, byte[]> cache;
+    private final BlockCache blockCache;
     /**
      * -- GETTER --
      *  获取事务管理器
@@ -62,12 +101,19 @@ public class LSMTree implements AutoCloseable {
         // 初始化数据目录
         initializeDirectories();
 
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+
         // 初始化核心组件
         this.wal = new WriteAheadLog(config);
         this.activeMemTable = new MemTable(config);
-        this.levelManager = new LevelManager(config);
-        this.compactionManager = new CompactionManager(config, levelManager);
-        this.cache = new ShardedCache<>(config.getCacheShardCount());
+        this.blockCache = new BlockCache(config.getBlockCacheSize(), config.getCacheShardCount());
+        this.levelManager = new LevelManager(config, blockCache);
+        this.flushManager = new FlushManager(config, levelManager, wal, snapshots);
+        this.compactionManager = new CompactionManager(config, levelManager, snapshots);
+        this.cache = new ShardedCache<>(config.getCacheShardCount(), config.getCacheSize(),
+                (key, value) -> key.length() + value.length, config.getCachePolicy());
         this.transactionManager = new TransactionManager(this);
 
         // 启动后台任务
@@ -83,7 +129,7 @@ public class LSMTree implements AutoCloseable {
      * 存储键值对
      *
      * 修复要点：
-     * 1. 正确使用写锁（获取写锁，释放写锁）
+     * 1. 不同键的写入并行执行，同一个键的写入按分段锁串行
      * 2. 在put操作成功后立即更新缓存，保证缓存一致性
      * 3. 增强错误处理，确保异常情况下锁能正确释放
      */
@@ -100,32 +146,37 @@ public class LSMTree implements AutoCloseable {
             throw new IllegalArgumentException("Value cannot be null, use delete() for deletion");
         }
 
-        globalLock.writeLock().lock();
-        try {
-            logger.debug("Putting key: {}, value length: {}", key, value.length);
+        // 超过WAL允许的最大条目长度时在分配序列号之前拒绝
+        WriteAheadLog.recordSize(key, value);
 
-            // 写入WAL确保持久性
-            wal.append(key, value);
+        logger.debug("Putting key: {}, value length: {}", key, value.length);
+        awaitDurable(write(key, value, false), key);
+        logger.debug("Successfully put key: {}", key);
+    }
 
-            // 写入活跃内存表
-            activeMemTable.put(key, value);
+    /**
+     * 异步存储键值对
+     *
+     * 写入内存表后立即返回，新值对读操作立即可见。返回的Future在WAL记录
+     * 同步到磁盘后完成，调用方可以借此把网络I/O与磁盘同步重叠起来。
+     * 同一个键的写入顺序与调用顺序一致。
+     */
+    public CompletableFuture<Void> putAsync(String key, byte[] value) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
 
-            // 立即更新缓存，确保后续读取能获得最新值
-            cache.put(key, value);
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
 
-            logger.debug("Successfully put key: {}", key);
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null, use deleteAsync() for deletion");
+        }
 
-            // 检查是否需要刷新内存表
-            if (activeMemTable.shouldFlush()) {
-                flushMemTable();
-            }
+        WriteAheadLog.recordSize(key, value);
 
-        } catch (IOException e) {
-            logger.error("Failed to put key: {}", key, e);
-            throw e;
-        } finally {
-            globalLock.writeLock().unlock();
-        }
+        return write(key, value, true);
     }
 
     /**
@@ -135,6 +186,7 @@ public class LSMTree implements AutoCloseable {
      * 1. 保持原有的查找顺序：缓存 -> 内存表 -> 磁盘
      * 2. 增强日志记录，便于调试
      * 3. 改进缓存策略，只在确实找到值时才更新缓存
+     * 4. 不加锁，不会被写操作阻塞
      */
     public byte[] get(String key) throws IOException {
         if (closed) {
@@ -145,7 +197,8 @@ public class LSMTree implements AutoCloseable {
             throw new IllegalArgumentException("Key cannot be null");
         }
 
-        globalLock.readLock().lock();
+        int stripe = stripeOf(key);
+        long version = keyVersions.get(stripe);
         try {
             logger.debug("Getting key: {}", key);
 
@@ -157,21 +210,28 @@ public class LSMTree implements AutoCloseable {
             }
 
             // 2. 检查活跃内存表
-            byte[] value = activeMemTable.get(key);
-            if (value != null) {
+            LookupResult result = activeMemTable.lookup(key, InternalKey.MAX_SEQUENCE);
+            if (result != null) {
                 logger.debug("Found key in active memtable: {}", key);
                 // 将从内存表读取的值加入缓存
-                cache.put(key, value);
-                return value;
+                return fillCache(key, result, stripe, version);
             }
 
-            // 3. 检查磁盘上的SSTable (从最新到最旧)
-            value = levelManager.get(key);
-            if (value != null) {
+            // 3. 检查等待刷新的不可变内存表 (从最新到最旧)
+            for (MemTable immutable : flushManager.getImmutableMemTables()) {
+                result = immutable.lookup(key, InternalKey.MAX_SEQUENCE);
+                if (result != null) {
+                    logger.debug("Found key in immutable memtable: {}", key);
+                    return fillCache(key, result, stripe, version);
+                }
+            }
+
+            // 4. 检查磁盘上的SSTable (从最新到最旧)，遇到删除标记就停止
+            result = levelManager.lookup(key, InternalKey.MAX_SEQUENCE);
+            if (result != null) {
                 logger.debug("Found key in SSTable: {}", key);
                 // 将从磁盘读取的值加入缓存
-                cache.put(key, value);
-                return value;
+                return fillCache(key, result, stripe, version);
             }
 
             logger.debug("Key not found: {}", key);
@@ -180,16 +240,158 @@ public class LSMTree implements AutoCloseable {
         } catch (IOException e) {
             logger.error("Failed to get key: {}", key, e);
             throw e;
-        } finally {
-            globalLock.readLock().unlock();
         }
     }
 
+    /**
+     * 创建快照
+     *
+     * 快照取已发布的序列号：不超过它的写入都已经进入内存表，之后通过快照读到的
+     * 内容不再变化。进行中的写入序列号更大，对快照不可见，因此不需要等待它们，
+     * 也不会阻塞写入。快照用完后必须关闭，否则压缩会一直保留它需要的旧版本。
+     */
+    public Snapshot getSnapshot() {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        return snapshots.create(publishedSequence::get);
+    }
+
+    /**
+     * 读取快照时键对应的值
+     *
+     * 按与get相同的顺序查找，只接受序列号不超过快照的版本。缓存中保存的是最新值，
+     * 快照读取不经过缓存，也不回填缓存。
+     */
+    public byte[] get(String key, Snapshot snapshot) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Snapshot cannot be null");
+        }
+
+        long sequence = snapshot.getSequence();
+        LookupResult result = activeMemTable.lookup(key, sequence);
+        if (result != null) {
+            return result.getValue();
+        }
+
+        for (MemTable immutable : flushManager.getImmutableMemTables()) {
+            result = immutable.lookup(key, sequence);
+            if (result != null) {
+                return result.getValue();
+            }
+        }
+
+        return levelManager.get(key, sequence);
+    }
+
+    /**
+     * 按键的顺序遍历当前所有数据
+     *
+     * 迭代器内部创建一个快照，遍历期间的写入不可见，关闭迭代器时释放快照。
+     */
+    public MergingIterator iterator() {
+        return scan(null, null);
+    }
+
+    /**
+     * 按键的顺序遍历快照时的数据，关闭迭代器不会释放传入的快照
+     */
+    public MergingIterator iterator(Snapshot snapshot) {
+        return scan(null, null, snapshot);
+    }
+
+    /**
+     * 范围查询，按键的顺序返回[from, to)中的键值对
+     *
+     * 内存表和各层SSTable的有序序列通过堆归并，被覆盖的旧版本和删除的键不会返回。
+     * 只有键范围与查询重叠的SSTable参与归并，数据块在遍历到时才读取。
+     * 迭代器支持seek/seekForPrev/prev/seekToLast，可以从任意位置双向遍历，
+     * 例如"T之前最新的N条记录"只需要seekForPrev(T)后调用N次prev()，不必读取整个范围。
+     * 迭代器内部创建一个快照，关闭迭代器时释放，因此必须关闭。
+     *
+     * @param from 起始键（包含），为null表示从第一个键开始
+     * @param to 结束键（不包含），为null表示直到最后一个键
+     */
+    public MergingIterator scan(String from, String to) {
+        Snapshot snapshot = getSnapshot();
+        try {
+            return newIterator(from, to, snapshot.getSequence(), snapshot);
+        } catch (RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 在快照上执行范围查询，关闭迭代器不会释放传入的快照
+     */
+    public MergingIterator scan(String from, String to, Snapshot snapshot) {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Snapshot cannot be null");
+        }
+
+        return newIterator(from, to, snapshot.getSequence(), null);
+    }
+
+    /**
+     * 前缀查询，按键的顺序返回所有以prefix开头的键值对
+     */
+    public MergingIterator prefixScan(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix cannot be null");
+        }
+
+        return scan(prefix, ByteUtils.prefixSuccessor(prefix));
+    }
+
+    /**
+     * 创建归并迭代器
+     *
+     * 按活跃内存表、不可变内存表、SSTable的顺序收集输入。数据只会从内存表流向SSTable，
+     * 按同样的方向收集不会遗漏正在刷新的数据，最多重复看到同一份数据。
+     * 各路输入中的范围删除合并成一个索引，遮盖按序列号判断，与它来自哪一路无关。
+     */
+    private MergingIterator newIterator(String from, String to, long sequence, Snapshot ownedSnapshot) {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        List<InternalIterator> sources = new ArrayList<>();
+        List<RangeTombstone> rangeTombstones = new ArrayList<>();
+        sources.add(activeMemTable.cursor());
+        rangeTombstones.addAll(activeMemTable.getRangeTombstones());
+        for (MemTable immutable : flushManager.getImmutableMemTables()) {
+            sources.add(immutable.cursor());
+            rangeTombstones.addAll(immutable.getRangeTombstones());
+        }
+
+        List<SSTable> tables = levelManager.acquireSSTables(from, to);
+        for (SSTable table : tables) {
+            sources.add(table.cursor(true));
+            rangeTombstones.addAll(table.getRangeTombstones().getTombstones());
+        }
+        return new MergingIterator(sources, new RangeTombstoneSet(rangeTombstones), sequence,
+                from, to, tables, ownedSnapshot);
+    }
+
     /**
      * 删除键
      *
      * 修复要点：
-     * 1. 使用写锁而不是读锁，因为删除是写操作
+     * 1. 与put相同，持有内存表锁的共享模式和键所在分段的锁
      * 2. 确保从缓存中移除键，保证缓存一致性
      * 3. 增强错误处理和日志记录
      */
@@ -202,26 +404,253 @@ public class LSMTree implements AutoCloseable {
             throw new IllegalArgumentException("Key cannot be null");
         }
 
-        // 修复：使用写锁而不是读锁
-        globalLock.writeLock().lock();
+        logger.debug("Deleting key: {}", key);
+        awaitDurable(write(key, null, false), key);
+        logger.debug("Successfully deleted key: {}", key);
+    }
+
+    /**
+     * 删除[startKey, endKey)内的所有键
+     *
+     * 只写入一个范围删除标记，与范围内键的数量无关：WAL和内存表中各占一个条目，
+     * 刷新后保存在SSTable的范围删除块中。读取和迭代器跳过被遮盖的版本，
+     * 压缩时丢弃被遮盖的数据，范围删除本身在到达最底层后丢弃。
+     * startKey等于endKey时范围为空，不做任何操作。
+     */
+    public void deleteRange(String startKey, String endKey) throws IOException {
+        if (startKey == null || endKey == null) {
+            throw new IllegalArgumentException("Range bounds cannot be null");
+        }
+
+        if (startKey.equals(endKey)) {
+            return;
+        }
+
+        logger.debug("Deleting range: [{}, {})", startKey, endKey);
+        write(new WriteBatch().deleteRange(startKey, endKey));
+        logger.debug("Successfully deleted range: [{}, {})", startKey, endKey);
+    }
+
+    /**
+     * 异步删除键
+     *
+     * 与putAsync相同，返回的Future在墓碑记录同步到磁盘后完成。
+     */
+    public CompletableFuture<Void> deleteAsync(String key) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        return write(key, null, true);
+    }
+
+    /**
+     * 写入路径的公共实现
+     *
+     * 持有内存表锁的共享模式和键所在分段的锁，依次写WAL、内存表和缓存。
+     * 异步写入只把记录放入WAL的异步队列。还有未落盘的异步记录时，同步写入
+     * 也走异步队列，保证同一个键在WAL中的顺序与内存表一致。
+     *
+     * @param value 值，为null表示删除
+     * @param async 是否异步写入
+     * @return 记录持久化后完成的Future；同步写入WAL时返回null
+     */
+    private CompletableFuture<Void> write(String key, byte[] value, boolean async) throws IOException {
+        CompletableFuture<Void> durable = null;
+        int stripe = stripeOf(key);
+        long sequence = 0;
+        memTableLock.readLock().lock();
+        keyLocks[stripe].lock();
         try {
-            logger.debug("Deleting key: {}", key);
+            // 在分段锁内分配序列号，同一个键的序列号顺序与写入顺序一致
+            sequence = lastSequence.incrementAndGet();
 
-            // LSM-Tree使用墓碑标记删除
-            wal.append(key, null);
-            activeMemTable.delete(key);
+            // 写入WAL确保持久性
+            if (async || wal.hasPendingAsyncWrites()) {
+                durable = wal.appendAsync(sequence, key, value);
+            } else {
+                wal.append(sequence, key, value);
+            }
 
-            // 从缓存中移除，确保缓存一致性
-            cache.remove(key);
+            // 写入活跃内存表，LSM-Tree使用墓碑标记删除
+            if (value != null) {
+                activeMemTable.put(key, sequence, value);
+            } else {
+                activeMemTable.delete(key, sequence);
+            }
 
-            logger.debug("Successfully deleted key: {}", key);
+            // 立即更新缓存，确保后续读取能获得最新值
+            keyVersions.incrementAndGet(stripe);
+            if (value != null) {
+                cache.put(key, value);
+            } else {
+                cache.remove(key);
+            }
 
         } catch (IOException e) {
-            logger.error("Failed to delete key: {}", key, e);
+            logger.error("Failed to write key: {}", key, e);
             throw e;
         } finally {
-            // 修复：释放写锁
-            globalLock.writeLock().unlock();
+            if (sequence != 0) {
+                // 写入失败时也要完成，序列号留下空缺，不能阻塞之后的发布
+                publishedSequence.complete(sequence, sequence);
+            }
+            keyLocks[stripe].unlock();
+            memTableLock.readLock().unlock();
+        }
+
+        // 检查是否需要刷新内存表（墓碑同样占用内存表空间）
+        maybeFlushMemTable();
+        return durable;
+    }
+
+    /**
+     * 原子地应用一个写批次
+     *
+     * 批次中的操作分配连续的序列号，作为一条WAL记录写入，在同一次加锁中写入内存表：
+     * 快照要么看到整个批次，要么完全看不到；崩溃恢复时批次要么完整重放，要么整体丢弃。
+     * 批量导入时每个批次只需要一次加锁和一次WAL写入。
+     */
+    public void write(WriteBatch batch) throws IOException {
+        write(batch, null);
+    }
+
+    /**
+     * 原子地应用一个写批次，并在写入前检查写写冲突
+     *
+     * 持有批次中所有键所在分段的锁之后，检查每个键在快照之后是否有新的版本，
+     * 有则放弃整个批次并抛出WriteConflictException。检查和写入之间没有其他
+     * 写入能修改这些键，事务提交以此实现"先提交者胜"。
+     *
+     * @param snapshot 读取时使用的快照，为null时不做冲突检查
+     */
+    public void write(WriteBatch batch, Snapshot snapshot) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Storage engine is closed");
+        }
+
+        if (batch == null) {
+            throw new IllegalArgumentException("Batch cannot be null");
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        WriteAheadLog.recordSize(batch);
+
+        List<WriteBatch.Operation> operations = batch.getOperations();
+        // 按分段编号的顺序加锁，避免与其他批次死锁；范围删除可能涉及任何键，锁住所有分段
+        int[] stripes = batch.hasRangeDeletions()
+                ? IntStream.range(0, KEY_LOCK_STRIPES).toArray()
+                : operations.stream()
+                        .mapToInt(operation -> stripeOf(operation.getKey()))
+                        .distinct().sorted().toArray();
+
+        CompletableFuture<Void> durable = null;
+        long firstSequence = 0;
+        memTableLock.readLock().lock();
+        for (int stripe : stripes) {
+            keyLocks[stripe].lock();
+        }
+        try {
+            if (snapshot != null) {
+                for (WriteBatch.Operation operation : operations) {
+                    if (!operation.isRangeDeletion()
+                            && hasNewerVersion(operation.getKey(), snapshot.getSequence())) {
+                        throw new WriteConflictException(operation.getKey());
+                    }
+                }
+            }
+
+            firstSequence = lastSequence.getAndAdd(operations.size()) + 1;
+
+            // 整个批次作为一条WAL记录写入；有未落盘的异步记录时同样走异步队列，
+            // 保持WAL顺序与内存表一致
+            if (wal.hasPendingAsyncWrites()) {
+                durable = wal.appendBatchAsync(firstSequence, batch);
+            } else {
+                wal.appendBatch(firstSequence, batch);
+            }
+
+            for (int i = 0; i < operations.size(); i++) {
+                WriteBatch.Operation operation = operations.get(i);
+                if (operation.isRangeDeletion()) {
+                    activeMemTable.deleteRange(operation.getKey(), operation.getEndKey(), firstSequence + i);
+                } else if (operation.isDeletion()) {
+                    activeMemTable.delete(operation.getKey(), firstSequence + i);
+                } else {
+                    activeMemTable.put(operation.getKey(), firstSequence + i, operation.getValue());
+                }
+            }
+
+            if (batch.hasRangeDeletions()) {
+                // 缓存无法按范围失效，整个清空；递增所有分段的版本号，撤销进行中的回填
+                for (int stripe : stripes) {
+                    keyVersions.incrementAndGet(stripe);
+                }
+                cache.clear();
+            } else {
+                for (WriteBatch.Operation operation : operations) {
+                    keyVersions.incrementAndGet(stripeOf(operation.getKey()));
+                    cache.remove(operation.getKey());
+                }
+            }
+
+        } catch (IOException e) {
+            if (!(e instanceof WriteConflictException)) {
+                logger.error("Failed to write batch of {} entries", operations.size(), e);
+            }
+            throw e;
+        } finally {
+            if (firstSequence != 0) {
+                publishedSequence.complete(firstSequence, firstSequence + operations.size() - 1);
+            }
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                keyLocks[stripes[i]].unlock();
+            }
+            memTableLock.readLock().unlock();
+        }
+
+        maybeFlushMemTable();
+        awaitDurable(durable, operations.get(0).getKey());
+    }
+
+    /**
+     * 检查键在指定序列号之后是否被写入过，调用方持有键所在分段的锁
+     */
+    private boolean hasNewerVersion(String key, long sequence) throws IOException {
+        // 从新到旧查找，找到的第一个版本就是最新的版本
+        long latest = activeMemTable.getLatestSequence(key);
+        if (latest >= 0) {
+            return latest > sequence;
+        }
+        for (MemTable immutable : flushManager.getImmutableMemTables()) {
+            latest = immutable.getLatestSequence(key);
+            if (latest >= 0) {
+                return latest > sequence;
+            }
+        }
+        return levelManager.hasNewerVersion(key, sequence);
+    }
+
+    /**
+     * 等待经由异步队列的同步写入落盘
+     */
+    private void awaitDurable(CompletableFuture<Void> durable, String key) throws IOException {
+        if (durable == null) {
+            return;
+        }
+
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            logger.error("Failed to write key: {}", key, e.getCause());
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
         }
     }
 
@@ -238,39 +667,81 @@ public class LSMTree implements AutoCloseable {
     }
 
     /**
-     * 刷新内存表到磁盘
+     * 活跃内存表写满时切换并提交后台刷新
+     *
+     * 在写入已经成功之后调用，切换失败只记录日志，不能让调用方误以为写入失败；
+     * 内存表仍然是满的，下一次写入会再次尝试切换。
+     */
+    private void maybeFlushMemTable() {
+        if (activeMemTable.shouldFlush()) {
+            try {
+                switchMemTable(false);
+            } catch (IOException e) {
+                logger.warn("Failed to switch full memtable, will retry on next write", e);
+            }
+        }
+    }
+
+    /**
+     * 切换内存表
      *
      * 优化要点：
-     * 1. 确保在刷新过程中正确处理缓存
-     * 2. 增强错误处理，确保资源正确释放
-     * 3. 提供更详细的日志信息
+     * 1. 只有交换内存表引用时独占内存表锁，SSTable由后台线程写入
+     * 2. 刷新队列已满时先在锁外等待，形成写停顿而不是无限堆积内存表
+     * 3. 旧内存表在刷新完成前对读操作保持可见
+     *
+     * @param force 为true时即使内存表未写满也切换（关闭时使用）
      */
-    private void flushMemTable() throws IOException {
-        // 注意：这个方法在调用时已经持有写锁
-        try {
-            logger.info("Flushing memtable to disk, current size: {} bytes",
-                    activeMemTable.getSize());
+    private void switchMemTable(boolean force) throws IOException {
+        flushManager.awaitCapacity();
 
-            // 创建新的内存表
+        // 等待进行中的写入完成后交换内存表
+        memTableLock.writeLock().lock();
+        try {
             MemTable oldMemTable = activeMemTable;
-            activeMemTable = new MemTable(config);
-
-            // 将旧内存表转换为SSTable
-            SSTable newSSTable = oldMemTable.flushToSSTable();
-            levelManager.addSSTable(newSSTable, 0);
-
-            // 清理WAL
-            wal.markFlushed(oldMemTable.getMaxSequenceNumber());
-
-            logger.info("Memtable flushed successfully, created SSTable: {}",
-                    newSSTable.getFilePath());
+            if (force ? oldMemTable.getSize() == 0 : !oldMemTable.shouldFlush()) {
+                return; // 已经被其他线程切换
+            }
 
+            flushManager.schedule(oldMemTable, wal.rotate());
+            activeMemTable = new MemTable(config);
         } catch (IOException e) {
-            logger.error("Failed to flush memtable", e);
+            logger.error("Failed to switch memtable", e);
             throw e;
+        } finally {
+            memTableLock.writeLock().unlock();
         }
     }
 
+    /**
+     * 把读到的值放入缓存
+     *
+     * 读操作不加锁，查找期间可能有写入更新了同一个键，此时回填的可能是旧值。
+     * 写入会先递增分段版本号再更新缓存，回填后版本号发生变化就撤销回填。
+     * 删除标记不放入缓存。
+     *
+     * @return 读到的值，删除标记为null
+     */
+    private byte[] fillCache(String key, LookupResult result, int stripe, long version) {
+        byte[] value = result.getValue();
+        if (result.isDeleted()) {
+            return null;
+        }
+        cache.put(key, value);
+        if (keyVersions.get(stripe) != version) {
+            cache.remove(key);
+        }
+        return value;
+    }
+
+    /**
+     * 计算键所在的锁分段
+     */
+    private static int stripeOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (KEY_LOCK_STRIPES - 1);
+    }
+
     /**
      * 恢复过程
      *
@@ -285,14 +756,18 @@ public class LSMTree implements AutoCloseable {
         try {
             // 清空缓存，确保恢复后的数据一致性
             cache.clear();
-            // 从WAL恢复
-            logger.info("Recovering from WAL...");
-            wal.recover(activeMemTable);
 
             // 从磁盘加载SSTable
             logger.info("Loading existing SSTables...");
             levelManager.loadExistingSSTables();
 
+            // 从WAL恢复，WAL中的记录比所有SSTable都新
+            logger.info("Recovering from WAL...");
+            long recoveredSequence = wal.recover(activeMemTable, levelManager.getLargestSequence());
+            lastSequence.set(recoveredSequence);
+            publishedSequence.reset(recoveredSequence);
+            logger.info("Recovered last sequence number: {}", recoveredSequence);
+
             logger.info("Recovery process completed successfully");
 
         } catch (IOException e) {
@@ -324,24 +799,28 @@ public class LSMTree implements AutoCloseable {
      * 新增方法：提供系统运行状态的可见性
      */
     public String getStats() {
-        globalLock.readLock().lock();
-        try {
-            StringBuilder stats = new StringBuilder();
-            stats.append("LSM-Tree Storage Engine Statistics:\n");
-            stats.append("- Active MemTable Size: ").append(activeMemTable.getSize()).append(" bytes\n");
-            stats.append("- Active MemTable Entries: ").append(activeMemTable.getMaxSequenceNumber()).append("\n");
-            stats.append("- Cache Shard Count: ").append(cache.getShardCount()).append("\n");
-            stats.append("- Engine Status: ").append(closed ? "CLOSED" : "RUNNING").append("\n");
-
-            // 添加压缩统计信息
-            var compactionStats = compactionManager.getStats();
-            stats.append("- Total Compactions: ").append(compactionStats.getTotalCompactions()).append("\n");
-            stats.append("- Total Bytes Compacted: ").append(compactionStats.getTotalBytesCompacted()).append("\n");
-
-            return stats.toString();
-        } finally {
-            globalLock.readLock().unlock();
-        }
+        StringBuilder stats = new StringBuilder();
+        stats.append("LSM-Tree Storage Engine Statistics:\n");
+        stats.append("- Active MemTable Size: ").append(activeMemTable.getSize()).append(" bytes\n");
+        stats.append("- Active MemTable Entries: ").append(activeMemTable.getEntryCount()).append("\n");
+        stats.append("- Last Sequence Number: ").append(lastSequence.get()).append("\n");
+        stats.append("- Live Snapshots: ").append(snapshots.size()).append("\n");
+        stats.append("- Immutable MemTables: ").append(flushManager.getImmutableMemTables().size()).append("\n");
+        stats.append("- Write Stalls: ").append(flushManager.getStallCount())
+                .append(" (").append(flushManager.getStallTimeMillis()).append(" ms)\n");
+        stats.append("- Flush Failures: ").append(flushManager.getFlushFailureCount()).append("\n");
+        stats.append("- Cache Shard Count: ").append(cache.getShardCount()).append("\n");
+        stats.append("- Cache Size: ").append(cache.weight()).append(" bytes\n");
+        stats.append("- Block Cache Hits: ").append(blockCache.getHitCount()).append("\n");
+        stats.append("- Block Cache Misses: ").append(blockCache.getMissCount()).append("\n");
+        stats.append("- Engine Status: ").append(closed ? "CLOSED" : "RUNNING").append("\n");
+
+        // 添加压缩统计信息
+        var compactionStats = compactionManager.getStats();
+        stats.append("- Total Compactions: ").append(compactionStats.getTotalCompactions()).append("\n");
+        stats.append("- Total Bytes Compacted: ").append(compactionStats.getTotalBytesCompacted()).append("\n");
+
+        return stats.toString();
     }
 
     @Override
@@ -350,7 +829,6 @@ public class LSMTree implements AutoCloseable {
             return;
         }
 
-        globalLock.writeLock().lock();
         try {
             logger.info("Closing LSM-Tree storage engine");
             closed = true;
@@ -358,13 +836,9 @@ public class LSMTree implements AutoCloseable {
             // 停止后台任务
             compactionManager.stop();
 
-            // 刷新内存表
-            if (activeMemTable.getSize() > 0) {
-                flushMemTable();
-            }
-
-            // 关闭WAL
-            wal.close();
+            // 刷新内存表，切换时会等待进行中的写入完成
+            switchMemTable(true);
+            flushManager.awaitAll();
 
             logger.info("LSM-Tree storage engine closed successfully");
 
@@ -372,7 +846,10 @@ public class LSMTree implements AutoCloseable {
             logger.error("Error during close", e);
             throw e;
         } finally {
-            globalLock.writeLock().unlock();
+            flushManager.shutdown();
+
+            // 关闭WAL
+            wal.close();
         }
     }
 }
\ No newline at end of file
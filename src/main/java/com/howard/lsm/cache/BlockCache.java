@@ -0,0 +1,72 @@
+package com.howard.lsm.cache;
+
+import com.howard.lsm.storage.Block;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据块缓存
+ *
+ * 所有SSTable共享的块缓存，按(表编号, 块偏移量)定位缓存的数据块。
+ * 命中时直接返回已经校验过的Block，跳过磁盘读取和校验和计算。
+ * 容量按块的字节数计算，底层使用分片缓存降低锁竞争。
+ */
+public class BlockCache {
+    private final ShardedCache<BlockKey, Block> cache;
+
+    // 命中统计
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacityBytes 缓存的总字节数
+     * @param shardCount 分片数量，必须是2的幂
+     */
+    public BlockCache(long capacityBytes, int shardCount) {
+        this.cache = new ShardedCache<>(shardCount, capacityBytes,
+                (key, block) -> (int) block.getSize());
+    }
+
+    /**
+     * 查找缓存的数据块，未命中时返回null
+     */
+    public Block get(long tableId, long offset) {
+        Block block = cache.get(new BlockKey(tableId, offset));
+        if (block != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return block;
+    }
+
+    /**
+     * 缓存数据块
+     */
+    public void put(long tableId, long offset, Block block) {
+        cache.put(new BlockKey(tableId, offset), block);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取命中率，尚无访问时返回0
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * 缓存键：表编号在进程内唯一，文件被删除后其缓存块会被自然淘汰
+     */
+    private record BlockKey(long tableId, long offset) {
+    }
+}
@@ -0,0 +1,22 @@
+package com.howard.lsm.cache;
+
+/**
+ * 缓存分片
+ *
+ * ShardedCache的每个分片都是一个独立的线程安全缓存，
+ * 具体的淘汰策略由实现类决定。
+ */
+interface CacheShard<K, V> {
+
+    V get(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    void clear();
+
+    int size();
+
+    long weight();
+}
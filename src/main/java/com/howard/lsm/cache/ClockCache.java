@@ -0,0 +1,178 @@
+package com.howard.lsm.cache;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CLOCK置换算法的并发缓存
+ *
+ * LRU在每次命中时都要调整链表，读操作也必须加锁，并发读者只能串行执行。
+ * CLOCK用一个访问位近似LRU：命中时只把节点的访问位置为true，
+ * 不改变任何共享结构，因此读路径完全无锁，命中吞吐随读线程数线性增长。
+ *
+ * 写入、删除和淘汰在锁内进行。淘汰时指针（队首）依次扫描节点：
+ * 访问位为true的节点清除访问位后放回队尾，获得"第二次机会"；
+ * 访问位为false的节点被淘汰。
+ *
+ * 容量按权重计算，所有条目的权重之和不超过capacity。
+ */
+public class ClockCache<K, V> implements CacheShard<K, V> {
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+        int weight;       // 受锁保护
+        boolean removed;  // 受锁保护，已删除的节点在扫描到时跳过
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long capacity;
+    private final Weigher<K, V> weigher;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    // 以下字段受锁保护
+    private final ReentrantLock lock;
+    private final ArrayDeque<Node<K, V>> clock;
+    private long totalWeight;
+    private int removedCount;
+
+    public ClockCache(long capacity, Weigher<K, V> weigher) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("ClockCache capacity must be greater than 0!");
+        }
+
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.map = new ConcurrentHashMap<>();
+        this.lock = new ReentrantLock();
+        this.clock = new ArrayDeque<>();
+    }
+
+    /**
+     * 查找缓存的值，不加锁
+     */
+    @Override
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if(node == null) {
+            return null;
+        }
+        // 已经置位时不再写入，避免多个读者反复写同一缓存行
+        if(!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+
+        lock.lock();
+        try {
+            if(weight > capacity) {
+                // 单个条目超过总容量，不缓存，同时丢弃旧值避免读到过期数据
+                removeLocked(key);
+                return;
+            }
+
+            Node<K, V> existing = map.get(key);
+            if(existing != null) {
+                totalWeight += weight - existing.weight;
+                existing.weight = weight;
+                existing.value = value;
+                existing.referenced = true;
+            } else {
+                Node<K, V> node = new Node<>(key, value, weight);
+                map.put(key, node);
+                clock.addLast(node);
+                totalWeight += weight;
+            }
+
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        lock.lock();
+        try {
+            removeLocked(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            clock.clear();
+            totalWeight = 0;
+            removedCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long weight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 转动时钟指针直到总权重不超过容量
+     *
+     * 每个节点最多获得一次第二次机会，最多扫描两圈就能找到可淘汰的节点。
+     */
+    private void evict() {
+        while(totalWeight > capacity) {
+            Node<K, V> node = clock.pollFirst();
+            if(node.removed) {
+                removedCount--;
+            } else if(node.referenced) {
+                node.referenced = false;
+                clock.addLast(node);
+            } else {
+                map.remove(node.key, node);
+                node.removed = true;
+                totalWeight -= node.weight;
+            }
+        }
+    }
+
+    private void removeLocked(K key) {
+        Node<K, V> node = map.remove(key);
+        if(node == null) {
+            return;
+        }
+
+        // 节点留在时钟队列中，扫描到时再丢弃；堆积过多时整体清理一次
+        node.removed = true;
+        totalWeight -= node.weight;
+        if(++removedCount > map.size()) {
+            clock.removeIf(n -> n.removed);
+            removedCount = 0;
+        }
+    }
+}
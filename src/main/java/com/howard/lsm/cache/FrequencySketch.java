@@ -0,0 +1,123 @@
+package com.howard.lsm.cache;
+
+/**
+ * 访问频率估算器（Count-Min Sketch）
+ *
+ * 用固定大小的计数器表近似记录每个键的访问次数。每个键通过4个不同的哈希
+ * 映射到4个计数器，估算值取其中的最小值，哈希冲突只会让估算值偏大。
+ *
+ * 计数器为4位，一个long保存16个，最大计数为15。累计增加次数达到
+ * 采样上限后所有计数器减半，让频率随时间衰减，过去的热点不会永远占据缓存。
+ *
+ * 不是线程安全的，由调用方加锁保护。
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        ensureCapacity(16);
+    }
+
+    /**
+     * 按预计的条目数量调整计数器表，扩容时保留已有的计数
+     *
+     * 表的长度总是2的幂，键在新表中的位置的低位就是它在旧表中的位置，
+     * 因此把旧表的每个long复制到新表中所有低位与之相同的位置后，
+     * 每个键估算出的频率与扩容前完全相同，热点不会因为扩容被扫描挤出缓存。
+     */
+    void ensureCapacity(int maximumSize) {
+        int capacity = Math.min(Math.max(maximumSize, 16), MAX_TABLE_SIZE);
+        if (table != null && table.length >= capacity) {
+            return;
+        }
+
+        long[] grown = new long[Integer.highestOneBit(capacity - 1) << 1];
+        if (table != null) {
+            for (int i = 0; i < grown.length; i++) {
+                grown[i] = table[i & tableMask];
+            }
+        }
+        table = grown;
+        tableMask = table.length - 1;
+        sampleSize = 10 * capacity;
+    }
+
+    /**
+     * 估算键的访问次数，最大为15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 第index个long中的第j个4位计数器加1，已达上限时返回false
+     */
+    private boolean incrementAt(int index, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -8,6 +8,7 @@ public class LRUCache<K, V> {
     private static class Node<K, V> {
         K key;
         V value;
+        int weight;
         Node<K, V> prev;
         Node<K, V> next;
 
@@ -17,19 +18,29 @@ public class LRUCache<K, V> {
         }
     }
 
-    private final int capacity;
+    private final long capacity;
+    private final Weigher<K, V> weigher;
     private final Map<K, Node<K, V>> cache;
+    private long totalWeight;
 
     private final Node<K, V> head;
     private final Node<K, V> tail;
 
     public LRUCache(int capacity) {
+        this(capacity, (key, value) -> 1);
+    }
+
+    /**
+     * 按权重限制容量的LRU缓存，所有条目的权重之和不超过capacity
+     */
+    public LRUCache(long capacity, Weigher<K, V> weigher) {
         if(capacity <= 0) {
             throw new IllegalArgumentException("LRUCache capacity must be greater than 0!");
         }
 
         this.capacity = capacity;
-        this.cache = new HashMap<>(capacity);
+        this.weigher = weigher;
+        this.cache = new HashMap<>();
 
         this.head = new Node<>(null, null);
         this.tail = new Node<>(null, null);
@@ -54,33 +65,48 @@ public class LRUCache<K, V> {
         Node<K, V> node = cache.remove(key);
         if(node != null) {
             removeNode(node);
-            cache.remove(key);
+            totalWeight -= node.weight;
         }
     }
 
     public void put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        if(weight > capacity) {
+            // 单个条目超过总容量，不缓存，同时丢弃旧值避免读到过期数据
+            remove(key);
+            return;
+        }
+
         Node<K, V> existingNode = cache.get(key);
         if(existingNode != null) {
+            totalWeight += weight - existingNode.weight;
             existingNode.value = value;
+            existingNode.weight = weight;
             moveToHead(existingNode);
         } else {
-            if(cache.size() >= capacity) {
-                Node<K, V> victim = tail.prev;
-                removeNode(victim);
-                cache.remove(victim.key);
-            }
-
             Node<K, V> newNode = new Node<>(key, value);
+            newNode.weight = weight;
             addToHead(newNode);
             cache.put(key, newNode);
+            totalWeight += weight;
         }
 
+        while(totalWeight > capacity) {
+            Node<K, V> victim = tail.prev;
+            removeNode(victim);
+            cache.remove(victim.key);
+            totalWeight -= victim.weight;
+        }
     }
 
     public int size() {
         return cache.size();
     }
 
+    public long weight() {
+        return totalWeight;
+    }
+
     private void moveToHead(Node<K, V> node) {
         removeNode(node);
         addToHead(node);
@@ -104,6 +130,7 @@ public class LRUCache<K, V> {
 
     public void clear() {
         cache.clear();
+        totalWeight = 0;
         head.next = tail;
         tail.prev = head;
     }
@@ -1,24 +1,48 @@
 package com.howard.lsm.cache;
 
+import com.howard.lsm.config.CachePolicy;
 import lombok.Getter;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+/**
+ * 分片缓存
+ *
+ * 按键的哈希把条目分散到多个分片，每个分片是一个独立的缓存，
+ * 淘汰策略由CachePolicy选择。命中只读取分片内的并发哈希表，不加锁；
+ * 写入只锁定单个分片。
+ */
 public class ShardedCache<K, V> {
     private final CacheShard<K, V>[] shards;
     @Getter
     private final int shardCount;
     private final int shardMask;
 
+    public ShardedCache(int shardCount, long capacity, Weigher<K, V> weigher) {
+        this(shardCount, capacity, weigher, CachePolicy.CLOCK);
+    }
+
+    /**
+     * 按权重限制总容量的分片缓存，容量平均分配到各个分片
+     *
+     * @param shardCount 分片数量，必须是2的幂
+     * @param capacity 所有分片的总容量（权重之和）
+     * @param weigher 条目权重计算方式
+     * @param policy 分片的淘汰策略
+     */
     @SuppressWarnings("unchecked")
-    public ShardedCache(int shardCount) {
+    public ShardedCache(int shardCount, long capacity, Weigher<K, V> weigher, CachePolicy policy) {
+        if(shardCount <= 0 || (shardCount & (shardCount - 1)) != 0) {
+            throw new IllegalArgumentException("Shard count must be a power of 2: " + shardCount);
+        }
+
         this.shardCount = shardCount;
         this.shardMask = shardCount - 1;
         this.shards = new CacheShard[shardCount];
 
+        long shardCapacity = Math.max(1, capacity / shardCount);
         for(int i = 0; i < shardCount; i++) {
-            shards[i] = new CacheShard<>();
+            shards[i] = policy == CachePolicy.TINY_LFU
+                    ? new TinyLfuCache<>(shardCapacity, weigher)
+                    : new ClockCache<>(shardCapacity, weigher);
         }
     }
 
@@ -40,55 +64,22 @@ public class ShardedCache<K, V> {
         }
     }
 
+    /**
+     * 获取所有分片当前的总权重
+     */
+    public long weight() {
+        long total = 0;
+        for(int i = 0; i < shardCount; i++) {
+            total += shards[i].weight();
+        }
+        return total;
+    }
+
     private CacheShard<K, V> getShard(K key) {
         int hash = key.hashCode();
+        // 混合高位，避免低位分布不均的键集中到少数分片
+        hash ^= hash >>> 16;
         int shardIndex = hash & shardMask;
         return shards[shardIndex];
     }
-
-    private static class CacheShard<K, V> {
-        private final LRUCache<K, V> cache;
-        private final ReadWriteLock lock;
-
-        public CacheShard() {
-            this.cache = new LRUCache<>(1000); // Default capacity, can be parameterized
-            this.lock = new ReentrantReadWriteLock();
-        }
-
-        public V get(K key) {
-            lock.readLock().lock();
-            try {
-                return cache.get(key);
-            } finally {
-                lock.readLock().unlock();
-            }
-        }
-
-        public void put(K key, V value) {
-            lock.writeLock().lock();
-            try {
-                cache.put(key, value);
-            } finally {
-                lock.writeLock().unlock();
-            }
-        }
-
-        public void remove(K key) {
-            lock.writeLock().lock();
-            try {
-                cache.remove(key);
-            } finally {
-                lock.writeLock().unlock();
-            }
-        }
-
-        public void clear() {
-            lock.writeLock().lock();
-            try {
-                cache.clear();
-            } finally {
-                lock.writeLock().unlock();
-            }
-        }
-    }
 }
@@ -0,0 +1,373 @@
+package com.howard.lsm.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU准入策略的并发缓存
+ *
+ * 纯LRU会被一次范围扫描或批量导入整体冲刷，因为每个新条目都会无条件进入缓存。
+ * W-TinyLFU在淘汰之前先做准入判断：
+ * 1. 窗口区：约占1%容量的LRU，所有新条目先进入这里，给突发访问一个缓冲
+ * 2. 试用段：离开窗口的条目进入主区域的试用段
+ * 3. 保护段：在试用段被再次访问的条目晋升到这里，约占主区域的80%
+ *
+ * 需要淘汰时，比较试用段中最新进入的候选者和最久未访问的牺牲者，
+ * 由FrequencySketch估算两者的访问频率，频率更高的留下。扫描产生的一次性
+ * 访问频率很低，无法挤掉真正的热点数据。
+ *
+ * 命中路径不加锁：只从并发哈希表读取值，并把访问记录写入一个有损的环形缓冲区，
+ * 之后在持有锁时批量回放，调整队列顺序和频率计数。缓冲区满时会覆盖旧记录，
+ * 丢失少量访问记录只影响淘汰的精度，不影响正确性。
+ *
+ * 容量按权重计算，所有条目的权重之和不超过capacity。
+ */
+public class TinyLfuCache<K, V> implements CacheShard<K, V> {
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    // 每记录这么多次访问尝试回放一次
+    private static final int DRAIN_THRESHOLD_MASK = 15;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        // 以下字段受锁保护
+        int weight;
+        int queue;
+        boolean removed;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 带哨兵节点的双向链表，头部是最久未访问的条目
+     */
+    private static final class AccessQueue<K, V> {
+        private final Node<K, V> sentinel = new Node<>(null, null, 0);
+
+        AccessQueue() {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node<K, V> peekFirst() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        Node<K, V> peekLast() {
+            return sentinel.prev == sentinel ? null : sentinel.prev;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            unlink(node);
+            addLast(node);
+        }
+
+        void clear() {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+    }
+
+    private final long capacity;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+    private final Weigher<K, V> weigher;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    // 访问记录缓冲区
+    private final AtomicReferenceArray<Node<K, V>> readBuffer;
+    private final AtomicInteger readCounter;
+
+    // 以下字段受锁保护
+    private final ReentrantLock lock;
+    private final FrequencySketch sketch;
+    private final AccessQueue<K, V> window;
+    private final AccessQueue<K, V> probation;
+    private final AccessQueue<K, V> protectedQueue;
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    public TinyLfuCache(long capacity, Weigher<K, V> weigher) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("TinyLfuCache capacity must be greater than 0!");
+        }
+
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.protectedCapacity = (long) ((capacity - windowCapacity) * 0.8);
+        this.weigher = weigher;
+        this.map = new ConcurrentHashMap<>();
+        this.readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        this.readCounter = new AtomicInteger();
+        this.lock = new ReentrantLock();
+        this.sketch = new FrequencySketch();
+        this.window = new AccessQueue<>();
+        this.probation = new AccessQueue<>();
+        this.protectedQueue = new AccessQueue<>();
+    }
+
+    /**
+     * 查找缓存的值，不加锁
+     */
+    @Override
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if(node == null) {
+            return null;
+        }
+        recordRead(node);
+        return node.value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+
+        lock.lock();
+        try {
+            drainReadBuffer();
+
+            if(weight > capacity) {
+                // 单个条目超过总容量，不缓存，同时丢弃旧值避免读到过期数据
+                removeLocked(key);
+                return;
+            }
+
+            Node<K, V> existing = map.get(key);
+            if(existing != null) {
+                adjustWeight(existing, weight - existing.weight);
+                existing.value = value;
+                onAccess(existing);
+            } else {
+                sketch.increment(key);
+                Node<K, V> node = new Node<>(key, value, weight);
+                node.queue = WINDOW;
+                map.put(key, node);
+                window.addLast(node);
+                windowWeight += weight;
+                totalWeight += weight;
+                sketch.ensureCapacity(map.size());
+            }
+
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        lock.lock();
+        try {
+            removeLocked(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for(int i = 0; i < READ_BUFFER_SIZE; i++) {
+                readBuffer.set(i, null);
+            }
+            for(Node<K, V> node : map.values()) {
+                node.removed = true;
+            }
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            windowWeight = 0;
+            protectedWeight = 0;
+            totalWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long weight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录一次命中，每隔一段时间尝试回放缓冲区；锁被占用时直接跳过
+     */
+    private void recordRead(Node<K, V> node) {
+        int index = readCounter.getAndIncrement();
+        readBuffer.lazySet(index & READ_BUFFER_MASK, node);
+
+        if((index & DRAIN_THRESHOLD_MASK) == DRAIN_THRESHOLD_MASK && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        for(int i = 0; i < READ_BUFFER_SIZE; i++) {
+            Node<K, V> node = readBuffer.getAndSet(i, null);
+            if(node != null) {
+                onAccess(node);
+            }
+        }
+    }
+
+    /**
+     * 处理一次访问：更新频率，并按所在区域调整位置
+     */
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        if(node.removed) {
+            return;
+        }
+
+        switch(node.queue) {
+            case WINDOW -> window.moveToLast(node);
+            case PROBATION -> {
+                // 试用段中再次被访问，晋升到保护段
+                probation.unlink(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                protectedWeight += node.weight;
+                demoteProtected();
+            }
+            default -> protectedQueue.moveToLast(node);
+        }
+    }
+
+    /**
+     * 保护段超出容量时，把最久未访问的条目降级回试用段
+     */
+    private void demoteProtected() {
+        while(protectedWeight > protectedCapacity) {
+            Node<K, V> node = protectedQueue.peekFirst();
+            if(node == null) {
+                return;
+            }
+            protectedQueue.unlink(node);
+            protectedWeight -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+        }
+    }
+
+    /**
+     * 淘汰条目直到总权重不超过容量
+     *
+     * 超出窗口容量的条目先转入试用段尾部成为候选者，
+     * 再由候选者和试用段头部的牺牲者按访问频率决定谁被淘汰。
+     */
+    private void evict() {
+        while(windowWeight > windowCapacity) {
+            Node<K, V> node = window.peekFirst();
+            window.unlink(node);
+            windowWeight -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+        }
+
+        while(totalWeight > capacity) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = probation.peekLast();
+
+            if(victim == null) {
+                // 试用段为空，只能从保护段或窗口区淘汰
+                victim = protectedQueue.peekFirst();
+                evictNode(victim != null ? victim : window.peekFirst());
+            } else if(victim == candidate) {
+                evictNode(victim);
+            } else if(sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        map.remove(node.key, node);
+        unlinkNode(node);
+    }
+
+    private void removeLocked(K key) {
+        Node<K, V> node = map.remove(key);
+        if(node != null) {
+            unlinkNode(node);
+        }
+    }
+
+    /**
+     * 把节点从所在队列中移除并扣除权重
+     */
+    private void unlinkNode(Node<K, V> node) {
+        node.removed = true;
+        switch(node.queue) {
+            case WINDOW -> {
+                window.unlink(node);
+                windowWeight -= node.weight;
+            }
+            case PROBATION -> probation.unlink(node);
+            default -> {
+                protectedQueue.unlink(node);
+                protectedWeight -= node.weight;
+            }
+        }
+        totalWeight -= node.weight;
+    }
+
+    /**
+     * 更新节点权重，同时调整所在区域的权重
+     */
+    private void adjustWeight(Node<K, V> node, int delta) {
+        node.weight += delta;
+        totalWeight += delta;
+        if(node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if(node.queue == PROTECTED) {
+            protectedWeight += delta;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.howard.lsm.cache;
+
+/**
+ * 缓存条目权重计算
+ *
+ * 缓存容量按权重之和计算，例如按字节数限制缓存时，
+ * 权重就是条目占用的字节数。
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    int weigh(K key, V value);
+}
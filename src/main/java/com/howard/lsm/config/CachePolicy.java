@@ -0,0 +1,25 @@
+package com.howard.lsm.config;
+
+/**
+ * 值缓存的淘汰策略
+ */
+public enum CachePolicy {
+
+    /**
+     * CLOCK置换
+     *
+     * 命中无锁，开销最小。所有新条目都会进入缓存，
+     * 一次大范围扫描或批量导入会把热点数据全部冲掉。
+     */
+    CLOCK,
+
+    /**
+     * W-TinyLFU准入
+     *
+     * 新条目先进入一个很小的窗口LRU，离开窗口后只有访问频率高于
+     * 主区域中将被淘汰的条目时才会被接纳。访问频率由Count-Min Sketch估算，
+     * 主区域分为试用段和保护段。适合在线请求与批处理混合的负载，
+     * 扫描和一次性访问不会污染缓存。
+     */
+    TINY_LFU
+}
@@ -1,6 +1,10 @@
 package com.howard.lsm.config;
 
 import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * LSM-Tree配置类
  *
@@ -14,6 +18,8 @@ public class LSMConfig {
 
     // 内存表配置
     private long memTableSize = 2 * 1024 * 1024; // 2MB
+    private int maxImmutableMemTables = 4; // 等待刷新的内存表达到该数量时写入停顿
+    private int flushThreadCount = 2;
 
     // 块配置
     private int blockSize = 4096; // 4KB
@@ -21,8 +27,15 @@ public class LSMConfig {
     // 布隆过滤器配置
     private double bloomFilterFPP = 0.01; // 1%误判率
 
+    // 读取配置
+    private ReadMode defaultReadMode = ReadMode.PREAD;
+    private Map<Integer, ReadMode> levelReadModes = new HashMap<>(); // 按层级覆盖默认读取方式
+
     // 缓存配置
     private int cacheShardCount = 16;
+    private long cacheSize = 16 * 1024 * 1024; // 16MB，值缓存按键和值的字节数计算容量
+    private CachePolicy cachePolicy = CachePolicy.CLOCK; // 值缓存的淘汰策略
+    private long blockCacheSize = 8 * 1024 * 1024; // 8MB，所有SSTable共享的块缓存
 
     // WAL配置
     private boolean walSyncImmediate = false;
@@ -34,8 +47,23 @@ public class LSMConfig {
 
     private int level0FileThreshold = 4;
     private long level1MaxSize = 10 * 1024 * 1024;
+    private long targetFileSize = 2 * 1024 * 1024; // 压缩输出的单个SSTable目标大小
 
     // 构造函数
     public LSMConfig() {}
 
+    /**
+     * 获取指定层级SSTable的读取方式，未单独配置的层级使用默认读取方式
+     */
+    public ReadMode getReadMode(int level) {
+        return levelReadModes.getOrDefault(level, defaultReadMode);
+    }
+
+    /**
+     * 为指定层级设置读取方式
+     */
+    public void setReadMode(int level, ReadMode readMode) {
+        levelReadModes.put(level, readMode);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.howard.lsm.config;
+
+/**
+ * SSTable数据块的读取方式
+ *
+ * 不同层级的访问模式差异很大：低层级的文件小且更新频繁，
+ * 高层级的文件大、存活时间长、读多写少。读取方式可以按层级分别配置，
+ * 见{@link LSMConfig#getReadMode(int)}。
+ */
+public enum ReadMode {
+
+    /**
+     * 定位读取
+     *
+     * 每次读取数据块都通过FileChannel的定位读取把数据复制到堆内存，
+     * 读到的块可以放入共享块缓存。内存占用可控，适合数据量远大于内存的场景。
+     */
+    PREAD,
+
+    /**
+     * 内存映射
+     *
+     * 打开文件时把整个文件映射到内存，数据块直接是映射区域的切片，
+     * 查找时没有系统调用和数据复制，页面的缓存交给操作系统管理。
+     * 适合读多、热点数据能放进页缓存的场景。
+     */
+    MMAP
+}
@@ -8,7 +8,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.PriorityQueue;
@@ -20,7 +26,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * 负责LSM-Tree的后台压缩任务：
  * 1. Level-based压缩策略：将上层的小文件合并到下层
  * 2. 减少文件数量：降低查询时需要检查的文件数
- * 3. 清理删除标记：在合并过程中清理已删除的键
+ * 3. 清理删除标记：在合并过程中清理已删除的键，保留活跃快照仍需要的旧版本
  * 4. 优化存储空间：减少重复数据和碎片
  *
  * 压缩策略：
@@ -33,6 +39,7 @@ public class CompactionManager {
 
     private final LSMConfig config;
     private final LevelManager levelManager;
+    private final SnapshotList snapshots;
     private final ScheduledExecutorService scheduler;
     private final AtomicBoolean running = new AtomicBoolean(false);
 
@@ -40,9 +47,10 @@ public class CompactionManager {
     private final AtomicLong totalCompactions = new AtomicLong(0);
     private final AtomicLong totalBytesCompacted = new AtomicLong(0);
 
-    public CompactionManager(LSMConfig config, LevelManager levelManager) {
+    public CompactionManager(LSMConfig config, LevelManager levelManager, SnapshotList snapshots) {
         this.config = config;
         this.levelManager = levelManager;
+        this.snapshots = snapshots;
         this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "LSM-Compaction-Thread");
             t.setDaemon(true);
@@ -153,113 +161,348 @@ public class CompactionManager {
             return;
         }
 
-        // 2. 如果是Level 0，需要特殊处理（因为文件间可能有重叠）
+        // 2. 找出目标层级中与源文件键范围重叠的文件，它们必须一起参与归并
+        int targetLevel = level + 1;
+        String smallest = sourceTables.stream().map(SSTable::getSmallestKey)
+                .min(String::compareTo).orElse("");
+        String largest = sourceTables.stream().map(SSTable::getLargestKey)
+                .max(String::compareTo).orElse("");
+        List<SSTable> overlappingTables =
+                levelManager.getOverlappingSSTables(targetLevel, smallest, largest);
+
+        // 3. 更深的层级中没有与输入重叠的文件时，输出就是这些键的最底层，墓碑可以丢弃
+        for (SSTable table : overlappingTables) {
+            if (table.getSmallestKey().compareTo(smallest) < 0) {
+                smallest = table.getSmallestKey();
+            }
+            if (table.getLargestKey().compareTo(largest) > 0) {
+                largest = table.getLargestKey();
+            }
+        }
+        boolean bottommost = levelManager.isBottommost(targetLevel, smallest, largest);
+
+        // 4. 如果是Level 0，需要特殊处理（因为文件间可能有重叠）
+        List<SSTable> obsoleteTables = new ArrayList<>(sourceTables);
+        obsoleteTables.addAll(overlappingTables);
+        CompactionOutput output = new CompactionOutput(targetLevel, bottommost, obsoleteTables);
         List<SSTable> targetTables;
         if (level == 0) {
-            targetTables = compactLevel0(sourceTables);
+            targetTables = compactLevel0(sourceTables, overlappingTables, output);
         } else {
-            targetTables = compactLevelN(level, sourceTables);
+            targetTables = compactLevelN(sourceTables, overlappingTables, output);
         }
 
-        // 3. 用新文件替换旧文件
-        levelManager.replaceFiles(level, sourceTables, level + 1, targetTables);
+        // 5. 用新文件替换旧文件，清单写入失败时新文件没有生效，直接删除
+        try {
+            levelManager.replaceFiles(level, obsoleteTables, targetLevel, targetTables);
+        } catch (IOException e) {
+            output.abandon();
+            throw e;
+        }
 
-        // 4. 删除旧文件
-        for (SSTable oldTable : sourceTables) {
-            oldTable.getFilePath().toFile().delete();
+        // 6. 删除旧文件，仍被迭代器引用的文件在最后一个引用释放时删除
+        for (SSTable oldTable : obsoleteTables) {
+            oldTable.markObsolete();
+            oldTable.unref();
         }
 
-        // 5. 更新统计信息
+        // 7. 更新统计信息
         totalCompactions.getAndIncrement();
         totalBytesCompacted.getAndAdd(
-                sourceTables.stream()
+                obsoleteTables.stream()
                         .mapToLong(SSTable::getFileSize)
                         .sum());
 
         logger.info("Compaction completed for level {}, {} files merged into {} files",
-                level, sourceTables.size(), targetTables.size());
+                level, obsoleteTables.size(), targetTables.size());
     }
 
     /**
      * 压缩Level 0（文件间可能重叠）
      */
-    private List<SSTable> compactLevel0(List<SSTable> sourceTables) throws IOException {
-        // Level 0的压缩需要考虑键范围重叠
-        // 这里简化实现，实际中需要复杂的合并逻辑
-        return mergeSSTablesWithOverlap(sourceTables);
+    private List<SSTable> compactLevel0(List<SSTable> sourceTables,
+                                        List<SSTable> overlappingTables,
+                                        CompactionOutput output) throws IOException {
+        // Level 0的每个文件都是独立的有序序列，需要多路归并
+        return mergeSSTablesWithOverlap(sourceTables, overlappingTables, output);
     }
 
     /**
      * 压缩Level N（N > 0，文件间无重叠）
      */
-    private List<SSTable> compactLevelN(int level, List<SSTable> sourceTables) throws IOException {
+    private List<SSTable> compactLevelN(List<SSTable> sourceTables,
+                                        List<SSTable> overlappingTables,
+                                        CompactionOutput output) throws IOException {
         // Level N的压缩相对简单，因为文件间无重叠
-        return mergeSSTablesWithoutOverlap(sourceTables);
+        return mergeSSTablesWithoutOverlap(sourceTables, overlappingTables, output);
     }
 
     /**
      * 合并有重叠的SSTable
+     *
+     * Level 0中越晚加入的文件越新，每个文件单独作为一路输入；
+     * 目标层级的重叠文件互不重叠，首尾相接作为最旧的一路输入。
      */
-    private List<SSTable> mergeSSTablesWithOverlap(List<SSTable> tables) throws IOException {
-        // 实现复杂的合并逻辑
-        // 这里提供简化版本
+    private List<SSTable> mergeSSTablesWithOverlap(List<SSTable> tables,
+                                                   List<SSTable> overlappingTables,
+                                                   CompactionOutput output) throws IOException {
         logger.debug("Merging {} SSTables with potential overlap", tables.size());
 
         // 使用优先队列合并多个有序序列
         PriorityQueue<SSTableIterator> heap = new PriorityQueue<>();
 
-        // 初始化迭代器
         for (SSTable table : tables) {
-            SSTableIterator iterator = new SSTableIterator(table);
-            if (iterator.hasNext()) {
-                heap.offer(iterator);
-            }
+            offerIfValid(heap, new SSTableIterator(List.of(table)));
         }
+        offerIfValid(heap, new SSTableIterator(overlappingTables));
 
         // 执行归并操作
-        return performMerge(heap);
+        return performMerge(heap, output);
     }
 
     /**
      * 合并无重叠的SSTable
+     *
+     * 源层级和目标层级内部各自无重叠，每层的文件首尾相接就是一个有序序列，
+     * 因此最多只有两路输入；目标层级没有重叠文件时直接顺序拷贝即可。
      */
-    private List<SSTable> mergeSSTablesWithoutOverlap(List<SSTable> tables) throws IOException {
-        // 实现简单的合并逻辑
+    private List<SSTable> mergeSSTablesWithoutOverlap(List<SSTable> tables,
+                                                      List<SSTable> overlappingTables,
+                                                      CompactionOutput output) throws IOException {
         logger.debug("Merging {} SSTables without overlap", tables.size());
 
-        // 由于无重叠，可以直接按顺序合并
-        return performSimpleMerge(tables);
+        if (overlappingTables.isEmpty()) {
+            return performSimpleMerge(tables, output);
+        }
+
+        PriorityQueue<SSTableIterator> heap = new PriorityQueue<>();
+        offerIfValid(heap, new SSTableIterator(tables));
+        offerIfValid(heap, new SSTableIterator(overlappingTables));
+        return performMerge(heap, output);
+    }
+
+    private void offerIfValid(PriorityQueue<SSTableIterator> heap, SSTableIterator iterator) {
+        if (iterator.hasNext()) {
+            heap.offer(iterator);
+        }
     }
 
     /**
      * 执行归并操作
+     *
+     * 每次从堆顶取出最小的内部键，同一个用户键的多个版本按从新到旧的顺序出堆，
+     * 由VersionFilter决定保留哪些版本：没有活跃快照时只保留最新的版本，
+     * 否则每个快照能看到的版本都会保留。
+     * 墓碑要一直保留到最底层，防止更深层级中被删除的旧值重新出现。
+     *
+     * 快照列表在归并开始时获取即可：之后创建的快照序列号不小于输入中的任何版本，
+     * 它需要的总是最新的版本。
      */
-    private List<SSTable> performMerge(PriorityQueue<SSTableIterator> heap) throws IOException {
-        // 这里实现具体的归并逻辑
-        // 返回合并后的SSTable列表
-        return List.of(); // 简化实现
+    private List<SSTable> performMerge(PriorityQueue<SSTableIterator> heap,
+                                       CompactionOutput output) throws IOException {
+        try {
+            VersionFilter filter = output.newVersionFilter();
+            while (!heap.isEmpty()) {
+                SSTableIterator iterator = heap.poll();
+                filter.add(iterator.getCurrentKey(), iterator.getCurrentValue());
+
+                iterator.next();
+                if (iterator.hasNext()) {
+                    heap.offer(iterator);
+                }
+            }
+            filter.finish();
+            return output.finish();
+
+        } catch (IOException | UncheckedIOException e) {
+            output.abandon();
+            throw e;
+        }
     }
 
     /**
      * 执行简单合并
+     *
+     * 只有一路有序输入，按顺序重写到目标层级即可。仍然经过VersionFilter：
+     * 已释放的快照保留的旧版本可以丢弃，到达最底层的墓碑也在这里丢弃。
      */
-    private List<SSTable> performSimpleMerge(List<SSTable> tables) throws IOException {
-        // 这里实现简单的文件合并逻辑
-        return List.of(); // 简化实现
+    private List<SSTable> performSimpleMerge(List<SSTable> tables,
+                                             CompactionOutput output) throws IOException {
+        try {
+            VersionFilter filter = output.newVersionFilter();
+            for (SSTableIterator iterator = new SSTableIterator(tables);
+                 iterator.hasNext(); iterator.next()) {
+                filter.add(iterator.getCurrentKey(), iterator.getCurrentValue());
+            }
+            filter.finish();
+            return output.finish();
+
+        } catch (IOException | UncheckedIOException e) {
+            output.abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * 压缩输出
+     *
+     * 将归并后的有序键值对写成一组SSTable，单个文件达到targetFileSize后
+     * 切换到下一个文件，避免压缩产生过大的文件。
+     *
+     * 输入中的范围删除按起始键分配到输出文件，文件的键范围包含分配给它的范围删除。
+     * 在下一个键之前切换文件时，跨过这个键的范围删除在这里切开：[起始键, 下一个键)
+     * 写入当前文件，[下一个键, 结束键)留给之后的文件。这样当前文件的最大键不超过
+     * 下一个文件的最小键，Level 1+文件之间仍然互不重叠，覆盖大片键空间的范围删除
+     * 也不会让输出文件无限增长。同一个用户键的多个版本不会被拆到两个文件中。
+     * 位于最底层、且比所有快照都旧的范围删除遮盖的数据已经全部丢弃，不再写出。
+     */
+    private class CompactionOutput {
+        private final int level;
+        private final boolean bottommost;
+        private final long[] snapshotSequences;
+        private final RangeTombstoneSet rangeTombstones;
+        private final List<RangeTombstone> retainedTombstones;
+        private final List<SSTable> tables = new ArrayList<>();
+        private SSTableBuilder builder;
+        private boolean full;
+        private String lastUserKey;
+        private int nextTombstone;
+        // 上一次切换文件时切开的范围删除的后半段，属于下一个文件
+        private List<RangeTombstone> carriedTombstones = new ArrayList<>();
+
+        /**
+         * @param inputs 参与压缩的所有文件，用于收集范围删除
+         */
+        CompactionOutput(int level, boolean bottommost, List<SSTable> inputs) {
+            this.level = level;
+            this.bottommost = bottommost;
+            this.snapshotSequences = snapshots.sequences();
+
+            List<RangeTombstone> tombstones = new ArrayList<>();
+            for (SSTable table : inputs) {
+                tombstones.addAll(table.getRangeTombstones().getTombstones());
+            }
+            this.rangeTombstones = tombstones.isEmpty()
+                    ? RangeTombstoneSet.EMPTY : new RangeTombstoneSet(tombstones);
+
+            long oldestSnapshot = snapshotSequences.length == 0 ? Long.MAX_VALUE : snapshotSequences[0];
+            this.retainedTombstones = tombstones.stream()
+                    .filter(tombstone -> !bottommost || tombstone.getSequence() > oldestSnapshot)
+                    .sorted(Comparator.comparing(RangeTombstone::getStartKey))
+                    .toList();
+        }
+
+        /**
+         * 创建这次压缩使用的版本过滤器
+         */
+        VersionFilter newVersionFilter() {
+            return new VersionFilter(snapshotSequences, bottommost, rangeTombstones, this::add);
+        }
+
+        void add(InternalKey key, byte[] value) throws IOException {
+            String userKey = key.getUserKey();
+            if (full && !userKey.equals(lastUserKey)) {
+                assignTombstonesBefore(userKey);
+                finishTable();
+            }
+
+            if (builder == null) {
+                builder = levelManager.newSSTableBuilder(level);
+            }
+            builder.add(key, value);
+            lastUserKey = userKey;
+            full = builder.getFileSize() >= config.getTargetFileSize();
+        }
+
+        List<SSTable> finish() throws IOException {
+            // 剩余的范围删除写入最后一个文件，没有任何数据时单独生成一个文件
+            if (!carriedTombstones.isEmpty() || nextTombstone < retainedTombstones.size()) {
+                if (builder == null) {
+                    builder = levelManager.newSSTableBuilder(level);
+                }
+                carriedTombstones.forEach(builder::addRangeTombstone);
+                carriedTombstones.clear();
+                while (nextTombstone < retainedTombstones.size()) {
+                    builder.addRangeTombstone(retainedTombstones.get(nextTombstone++));
+                }
+            }
+            finishTable();
+            return tables;
+        }
+
+        /**
+         * 压缩失败时删除已经写出的文件
+         */
+        void abandon() {
+            if (builder != null) {
+                builder.abandon();
+                builder = null;
+            }
+            for (SSTable table : tables) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close abandoned SSTable: {}", table.getFilePath(), e);
+                }
+                table.getFilePath().toFile().delete();
+            }
+            tables.clear();
+        }
+
+        /**
+         * 在key之前切换文件前，把起始键在key之前的范围删除分配给当前文件
+         *
+         * 结束键超过key的范围删除在key处切开，后半段序列号不变，留给下一个文件。
+         * 文件的最大键记为范围删除的结束键，切开后不超过key，即下一个文件的最小键。
+         */
+        private void assignTombstonesBefore(String key) {
+            List<RangeTombstone> assigned = carriedTombstones;
+            while (nextTombstone < retainedTombstones.size()
+                    && retainedTombstones.get(nextTombstone).getStartKey().compareTo(key) < 0) {
+                assigned.add(retainedTombstones.get(nextTombstone++));
+            }
+
+            carriedTombstones = new ArrayList<>();
+            for (RangeTombstone tombstone : assigned) {
+                if (tombstone.getEndKey().compareTo(key) > 0) {
+                    builder.addRangeTombstone(
+                            new RangeTombstone(tombstone.getStartKey(), key, tombstone.getSequence()));
+                    carriedTombstones.add(
+                            new RangeTombstone(key, tombstone.getEndKey(), tombstone.getSequence()));
+                } else {
+                    builder.addRangeTombstone(tombstone);
+                }
+            }
+        }
+
+        private void finishTable() throws IOException {
+            full = false;
+            if (builder == null) {
+                return;
+            }
+            tables.add(builder.finish());
+            builder = null;
+        }
     }
 
     /**
      * SSTable迭代器，用于归并排序
+     *
+     * 一个迭代器代表一路有序输入，可以是单个文件，也可以是一组
+     * 键范围互不重叠、按键排好序的文件。条目按内部键排序，
+     * 内部键中的序列号决定同一个用户键各版本的新旧。
      */
     @Getter
     private static class SSTableIterator implements Comparable<SSTableIterator> {
-        private final SSTable table;
-        private String currentKey;
+        private final Iterator<SSTable> tables;
+        private Iterator<Map.Entry<InternalKey, byte[]>> entries = Collections.emptyIterator();
+        private InternalKey currentKey;
         private byte[] currentValue;
 
-        public SSTableIterator(SSTable table) {
-            this.table = table;
+        public SSTableIterator(List<SSTable> tables) {
+            this.tables = tables.iterator();
             // 初始化第一个键值对
+            next();
         }
 
         public boolean hasNext() {
@@ -267,7 +510,19 @@ public class CompactionManager {
         }
 
         public void next() {
-            // 移动到下一个键值对
+            // 移动到下一个键值对，当前文件读完后切换到下一个文件
+            while (!entries.hasNext() && tables.hasNext()) {
+                entries = tables.next().iterator();
+            }
+
+            if (entries.hasNext()) {
+                Map.Entry<InternalKey, byte[]> entry = entries.next();
+                currentKey = entry.getKey();
+                currentValue = entry.getValue();
+            } else {
+                currentKey = null;
+                currentValue = null;
+            }
         }
 
         @Override
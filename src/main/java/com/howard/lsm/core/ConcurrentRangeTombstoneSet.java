@@ -0,0 +1,98 @@
+package com.howard.lsm.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 可以增量加入的范围删除索引，供内存表使用
+ *
+ * 与{@link RangeTombstoneSet}相同，删除范围按端点切分成互不重叠的片段，每个片段记录
+ * 覆盖它的所有标记的序列号（降序）。片段保存在跳表中，加入一个标记时只在它的两个端点
+ * 处切分片段，再更新它覆盖的片段，不需要重建整个索引：互不重叠的标记（例如按租户过期）
+ * 每次加入只需O(log n)，WAL重放大量范围删除时也不会退化成平方级别。
+ *
+ * 加入操作之间互斥；查询不加锁，每个片段的序列号数组创建后不再修改，整体替换。
+ * 加入过程中的查询可能只在部分片段上看到新的标记，但它的序列号此时还没有发布，
+ * 快照读取不会用到；提交时的冲突检查持有所有分段锁，不会与范围删除并发。
+ */
+final class ConcurrentRangeTombstoneSet {
+    private static final long[] NONE = new long[0];
+
+    // 片段起点 -> 覆盖[起点, 下一个起点)的序列号，降序；最后一个端点之后的片段为空
+    private final ConcurrentSkipListMap<String, long[]> fragments = new ConcurrentSkipListMap<>();
+    private final ConcurrentLinkedQueue<RangeTombstone> tombstones = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 加入一个标记
+     */
+    synchronized void add(RangeTombstone tombstone) {
+        String startKey = tombstone.getStartKey();
+        String endKey = tombstone.getEndKey();
+        if (startKey.compareTo(endKey) < 0) {
+            // 先切分出两个端点，切分本身不改变任何键的覆盖情况
+            split(endKey);
+            split(startKey);
+            for (String fragment : fragments.subMap(startKey, true, endKey, false).keySet()) {
+                fragments.put(fragment, insert(fragments.get(fragment), tombstone.getSequence()));
+            }
+        }
+        tombstones.add(tombstone);
+    }
+
+    boolean isEmpty() {
+        return tombstones.isEmpty();
+    }
+
+    /**
+     * 获取所有标记，按加入的顺序排列
+     */
+    List<RangeTombstone> getTombstones() {
+        return new ArrayList<>(tombstones);
+    }
+
+    /**
+     * 覆盖key、且序列号不超过sequence的标记中最大的序列号
+     *
+     * @return 没有这样的标记时返回0
+     */
+    long maxCoveringSequence(String key, long sequence) {
+        Map.Entry<String, long[]> fragment = fragments.floorEntry(key);
+        if (fragment == null) {
+            return 0;
+        }
+        for (long covering : fragment.getValue()) {
+            if (covering <= sequence) {
+                return covering;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 确保key是一个片段的起点，新片段继承原来覆盖key的序列号
+     */
+    private void split(String key) {
+        if (!fragments.containsKey(key)) {
+            Map.Entry<String, long[]> floor = fragments.floorEntry(key);
+            fragments.put(key, floor == null ? NONE : floor.getValue());
+        }
+    }
+
+    /**
+     * 把序列号插入降序数组，返回新数组；新的标记通常序列号最大，落在开头
+     */
+    private static long[] insert(long[] sequences, long sequence) {
+        long[] result = new long[sequences.length + 1];
+        int i = 0;
+        while (i < sequences.length && sequences[i] > sequence) {
+            result[i] = sequences[i];
+            i++;
+        }
+        result[i] = sequence;
+        System.arraycopy(sequences, i, result, i + 1, sequences.length - i);
+        return result;
+    }
+}
@@ -0,0 +1,327 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.storage.LevelManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 刷新管理器
+ *
+ * 写满的内存表切换为不可变内存表后进入刷新队列，由后台线程池写成Level 0的SSTable，
+ * 写入线程不再等待整个文件写完。主要职责：
+ * 1. 维护不可变内存表队列，刷新完成前读操作仍能在其中查到数据
+ * 2. 多个内存表可以并行刷新，但按切换顺序依次加入Level 0，
+ *    保证较新的数据总是位于较新的文件中
+ * 3. 队列达到上限时让写入线程等待（写停顿），避免内存无限增长
+ * 4. 后台刷新失败时删除不完整的文件，退避一段时间后用新的构建器重试；
+ *    重试成功前内存表对读操作保持可见，数据始终由WAL保护，已经成功的写入不受影响
+ */
+public class FlushManager {
+    private static final Logger logger = LoggerFactory.getLogger(FlushManager.class);
+
+    // 刷新失败后的重试间隔，每次失败翻倍，直到上限
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+
+    private final LSMConfig config;
+    private final LevelManager levelManager;
+    private final WriteAheadLog wal;
+    private final SnapshotList snapshots;
+    private final ExecutorService executor;
+
+    // 按切换顺序排列的刷新任务，最旧的在队首，受锁保护
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushCompleted = lock.newCondition();
+    private final ArrayDeque<FlushTask> pending = new ArrayDeque<>();
+
+    // 供读操作使用的不可变内存表快照，最新的在前
+    private volatile List<MemTable> immutableMemTables = List.of();
+
+    // 刷新失败统计，最近一次失败的原因在关闭时报告
+    private final AtomicLong flushFailures = new AtomicLong(0);
+    private volatile Exception lastFlushError;
+
+    // 写停顿统计
+    private final AtomicLong stallCount = new AtomicLong(0);
+    private final AtomicLong stallTimeNanos = new AtomicLong(0);
+
+    public FlushManager(LSMConfig config, LevelManager levelManager, WriteAheadLog wal,
+                        SnapshotList snapshots) {
+        this.config = config;
+        this.levelManager = levelManager;
+        this.wal = wal;
+        this.snapshots = snapshots;
+
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(config.getFlushThreadCount(), r -> {
+            Thread t = new Thread(r, "LSM-Flush-Thread-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 提交一个不可变内存表进行刷新
+     *
+     * 调用方必须在切换内存表的独占区内调用，这样队列的顺序与切换顺序一致。
+     * Level 0中文件的新旧由加入的顺序决定并记录在清单中，与文件编号无关，
+     * 重试时重新分配文件编号不影响顺序。
+     *
+     * @param memTable 已经不再接受写入的内存表
+     * @param walSegment 内存表对应的WAL段，刷新完成后删除
+     */
+    public void schedule(MemTable memTable, long walSegment) {
+        FlushTask task = new FlushTask(memTable, walSegment);
+
+        lock.lock();
+        try {
+            pending.addLast(task);
+            publishImmutableMemTables();
+        } finally {
+            lock.unlock();
+        }
+
+        executor.execute(() -> runFlush(task));
+    }
+
+    /**
+     * 获取正在等待刷新的内存表，最新的在前
+     */
+    public List<MemTable> getImmutableMemTables() {
+        return immutableMemTables;
+    }
+
+    /**
+     * 刷新队列已满时等待，直到有内存表刷新完成
+     *
+     * 刷新失败时后台会不断重试，写入在此期间保持停顿，而不是让内存表无限增长。
+     *
+     * @throws InterruptedIOException 等待被中断
+     */
+    public void awaitCapacity() throws IOException {
+        if (immutableMemTables.size() < config.getMaxImmutableMemTables()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            long start = System.nanoTime();
+            boolean stalled = false;
+            while (pending.size() >= config.getMaxImmutableMemTables()) {
+                if (!stalled) {
+                    stalled = true;
+                    logger.warn("Write stalled: {} immutable memtables waiting for flush", pending.size());
+                }
+                flushCompleted.await();
+            }
+
+            if (stalled) {
+                stallCount.incrementAndGet();
+                stallTimeNanos.addAndGet(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memtable flush");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待所有已提交的内存表刷新完成
+     *
+     * 关闭时使用。等待期间有刷新失败就不再等待重试，未刷新的数据保留在WAL中，
+     * 下次打开时恢复。
+     *
+     * @throws IOException 等待期间刷新失败，或者等待被中断
+     */
+    public void awaitAll() throws IOException {
+        lock.lock();
+        try {
+            long failures = flushFailures.get();
+            while (!pending.isEmpty()) {
+                if (flushFailures.get() != failures) {
+                    throw new IOException("Memtable flush failed, unflushed data remains in the WAL",
+                            lastFlushError);
+                }
+                flushCompleted.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memtable flush");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止刷新线程池
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Flush manager stopped");
+    }
+
+    /**
+     * 获取写停顿次数
+     */
+    public long getStallCount() {
+        return stallCount.get();
+    }
+
+    /**
+     * 获取写停顿的累计时间（毫秒）
+     */
+    public long getStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallTimeNanos.get());
+    }
+
+    /**
+     * 获取刷新失败的次数，每次失败后都会重试
+     */
+    public long getFlushFailureCount() {
+        return flushFailures.get();
+    }
+
+    /**
+     * 在后台线程中把内存表写成SSTable
+     *
+     * 每次尝试使用新的构建器，失败时删除不完整的文件后重试。
+     */
+    private void runFlush(FlushTask task) {
+        logger.info("Flushing memtable to disk, current size: {} bytes", task.memTable.getSize());
+
+        SSTableBuilder builder = null;
+        SSTable sstable;
+        try {
+            builder = levelManager.newSSTableBuilder(0);
+            sstable = task.memTable.flushToSSTable(builder, snapshots.sequences());
+        } catch (IOException | RuntimeException e) {
+            if (builder != null) {
+                builder.abandon();
+            }
+            retryLater(task, e);
+            return;
+        }
+
+        lock.lock();
+        try {
+            task.result = sstable;
+            installCompleted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按切换顺序把已完成的SSTable加入Level 0
+     *
+     * 较新的内存表可能先刷新完成，它必须等待更旧的内存表，
+     * 否则读操作可能在较旧的不可变内存表中读到过期的值。
+     */
+    private void installCompleted() {
+        boolean installed = false;
+        while (!pending.isEmpty() && pending.peekFirst().result != null) {
+            FlushTask task = pending.peekFirst();
+            try {
+                levelManager.addSSTable(task.result, 0);
+            } catch (IOException e) {
+                // 没有记入清单的文件不会生效，删除后重新刷新
+                logger.error("Failed to install flushed SSTable: {}", task.result.getFilePath(), e);
+                task.result.markObsolete();
+                task.result.unref();
+                task.result = null;
+                retryLater(task, e);
+                break;
+            }
+            pending.pollFirst();
+            installed = true;
+            logger.info("Memtable flushed successfully, created SSTable: {}",
+                    task.result.getFilePath());
+
+            // 清理WAL
+            try {
+                wal.markFlushed(task.memTable.getMaxSequenceNumber(), task.walSegment);
+            } catch (IOException e) {
+                logger.warn("Failed to delete WAL segment after flush", e);
+            }
+        }
+
+        if (installed) {
+            publishImmutableMemTables();
+            flushCompleted.signalAll();
+        }
+    }
+
+    private void publishImmutableMemTables() {
+        List<MemTable> snapshot = new ArrayList<>(pending.size());
+        for (Iterator<FlushTask> it = pending.descendingIterator(); it.hasNext(); ) {
+            snapshot.add(it.next().memTable);
+        }
+        immutableMemTables = List.copyOf(snapshot);
+    }
+
+    /**
+     * 记录一次失败并在退避后重新刷新
+     *
+     * 任务留在队列中，内存表对读操作保持可见，数据仍由WAL保护。
+     */
+    private void retryLater(FlushTask task, Exception error) {
+        int attempt = ++task.failedAttempts;
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, INITIAL_RETRY_DELAY_MILLIS << Math.min(attempt - 1, 16));
+        logger.error("Failed to flush memtable (attempt {}), retrying in {} ms", attempt, delay, error);
+
+        lock.lock();
+        try {
+            lastFlushError = error;
+            flushFailures.incrementAndGet();
+            flushCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!executor.isShutdown()) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                    .execute(() -> runFlush(task));
+        }
+    }
+
+    /**
+     * 刷新任务
+     */
+    private static class FlushTask {
+        final MemTable memTable;
+        final long walSegment;
+        SSTable result; // 受锁保护
+        int failedAttempts; // 同一时刻只有一次尝试在执行
+
+        FlushTask(MemTable memTable, long walSegment) {
+            this.memTable = memTable;
+            this.walSegment = walSegment;
+        }
+    }
+}
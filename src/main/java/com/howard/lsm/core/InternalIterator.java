@@ -0,0 +1,56 @@
+package com.howard.lsm.core;
+
+/**
+ * 内部键游标
+ *
+ * 按内部键的顺序在一个有序序列上双向移动，内存表、数据块、SSTable以及它们的归并
+ * 都实现这个接口。游标总是停在某个条目上，或者处于无效状态（移出序列两端）。
+ * 读取SSTable时的I/O错误以UncheckedIOException抛出。
+ */
+public interface InternalIterator {
+
+    /**
+     * 游标是否停在某个条目上
+     */
+    boolean isValid();
+
+    /**
+     * 移动到第一个条目
+     */
+    void seekToFirst();
+
+    /**
+     * 移动到最后一个条目
+     */
+    void seekToLast();
+
+    /**
+     * 移动到第一个不小于target的条目
+     */
+    void seek(InternalKey target);
+
+    /**
+     * 移动到最后一个不大于target的条目
+     */
+    void seekForPrev(InternalKey target);
+
+    /**
+     * 移动到下一个条目，调用前游标必须有效
+     */
+    void next();
+
+    /**
+     * 移动到上一个条目，调用前游标必须有效
+     */
+    void prev();
+
+    /**
+     * 当前条目的内部键，调用前游标必须有效
+     */
+    InternalKey key();
+
+    /**
+     * 当前条目的值，调用前游标必须有效
+     */
+    byte[] value();
+}
@@ -0,0 +1,96 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+import java.util.Objects;
+
+/**
+ * 内部键
+ *
+ * 每次写入都会分配一个全局递增的序列号，内部键由用户键、序列号和类型组成。
+ * 同一个用户键的每次写入都是一个独立的版本，内存表、WAL和SSTable中保存的都是内部键，
+ * 快照读取和归并时才能区分同一个键的不同版本。
+ *
+ * 排序规则：用户键升序；用户键相同时序列号降序，即较新的版本排在前面。
+ * 按用户键查找时，遇到的第一个匹配条目就是最新的版本。
+ *
+ * SSTable中的编码：[用户键UTF-8][尾部8字节]，尾部为 (sequence << 8) | type，
+ * 因此序列号最多使用56位。
+ */
+@Getter
+public final class InternalKey implements Comparable<InternalKey> {
+    public static final long MAX_SEQUENCE = (1L << 56) - 1;
+    public static final int TRAILER_SIZE = 8;
+
+    private final String userKey;
+    private final long sequence;
+    private final ValueType type;
+
+    public InternalKey(String userKey, long sequence, ValueType type) {
+        this.userKey = userKey;
+        this.sequence = sequence;
+        this.type = type;
+    }
+
+    /**
+     * 查找用的键，排在该用户键的所有版本之前
+     */
+    public static InternalKey forLookup(String userKey) {
+        return new InternalKey(userKey, MAX_SEQUENCE, ValueType.VALUE);
+    }
+
+    /**
+     * 是否是删除标记
+     */
+    public boolean isDeletion() {
+        return type == ValueType.DELETE;
+    }
+
+    /**
+     * 把序列号和类型打包为尾部的8字节
+     */
+    public long packTrailer() {
+        return (sequence << 8) | type.getCode();
+    }
+
+    /**
+     * 从尾部的8字节解析内部键
+     */
+    public static InternalKey unpack(String userKey, long trailer) {
+        return new InternalKey(userKey, trailer >>> 8, ValueType.fromCode((int) (trailer & 0xFF)));
+    }
+
+    @Override
+    public int compareTo(InternalKey other) {
+        int result = userKey.compareTo(other.userKey);
+        if (result != 0) {
+            return result;
+        }
+        result = Long.compare(other.sequence, sequence);
+        if (result != 0) {
+            return result;
+        }
+        return Integer.compare(other.type.getCode(), type.getCode());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InternalKey other)) {
+            return false;
+        }
+        return sequence == other.sequence && type == other.type && userKey.equals(other.userKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userKey, sequence, type);
+    }
+
+    @Override
+    public String toString() {
+        return userKey + "@" + sequence + ":" + type;
+    }
+}
@@ -0,0 +1,42 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+/**
+ * 点查的结果
+ *
+ * 区分"找到值"和"找到删除标记"：找到墓碑说明键在这一层已被删除，查找必须就此停止，
+ * 不能继续到更旧的内存表或层级，否则会读到被删除的旧值。两种情况都没有时，
+ * 查找方法返回null，表示这一层没有这个键，需要继续向下查找。
+ */
+public final class LookupResult {
+    /**
+     * 找到了删除标记
+     */
+    public static final LookupResult DELETED = new LookupResult(null);
+
+    /**
+     * -- GETTER --
+     *  找到的值，删除标记为null
+     */
+    @Getter
+    private final byte[] value;
+
+    private LookupResult(byte[] value) {
+        this.value = value;
+    }
+
+    /**
+     * 找到了值
+     */
+    public static LookupResult found(byte[] value) {
+        return new LookupResult(value);
+    }
+
+    /**
+     * 是否是删除标记
+     */
+    public boolean isDeleted() {
+        return this == DELETED;
+    }
+}
@@ -1,17 +1,12 @@
 package com.howard.lsm.core;
 
 import com.howard.lsm.config.LSMConfig;
-import com.howard.lsm.serialization.BinaryEncoder;
-import com.howard.lsm.storage.BloomFilter;
-import com.howard.lsm.storage.Block;
-import com.howard.lsm.storage.BlockBuilder;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 内存表实现
@@ -20,60 +15,192 @@ import java.util.concurrent.atomic.AtomicReference;
  * 1. 线程安全的并发访问
  * 2. 有序的键值存储
  * 3. O(log n)的查找、插入、删除操作
+ *
+ * 键是内部键（用户键 + 序列号 + 类型），每次写入都作为一个新版本插入，
+ * 不覆盖同一个键的旧版本。删除写入一个类型为DELETE的墓碑。
+ *
+ * 范围删除单独保存在增量维护的片段索引中（见{@link ConcurrentRangeTombstoneSet}），
+ * 不进入跳表：加入一个范围删除只更新它覆盖的片段，大量过期租户时也不会重建整个索引；
+ * 读取不需要加锁。刷新时才把全部范围删除构建成不可变的查询索引。
  */
 public class MemTable {
     private static final byte[] TOMBSTONE = new byte[0];
 
-    private final ConcurrentSkipListMap<String, byte[]> data;
+    private final ConcurrentSkipListMap<InternalKey, byte[]> data;
     private final AtomicLong size;
-    private final AtomicLong sequenceNumber;
+    private final AtomicLong entryCount;
+    private final AtomicLong maxSequenceNumber;
     private final long maxSize;
     private final LSMConfig config;
 
+    private final ConcurrentRangeTombstoneSet rangeTombstones = new ConcurrentRangeTombstoneSet();
+
     public MemTable(LSMConfig config) {
         this.config = config;
         this.data = new ConcurrentSkipListMap<>();
         this.size = new AtomicLong(0);
-        this.sequenceNumber = new AtomicLong(0);
+        this.entryCount = new AtomicLong(0);
+        this.maxSequenceNumber = new AtomicLong(0);
         this.maxSize = config.getMemTableSize();
     }
 
     /**
      * 插入键值对
+     *
+     * @param sequence 这次写入分配的序列号
      */
-    public void put(String key, byte[] value) {
-        byte[] oldValue = data.put(key, value);
-        long newSequence = sequenceNumber.incrementAndGet();
+    public void put(String key, long sequence, byte[] value) {
+        add(new InternalKey(key, sequence, ValueType.VALUE), value);
+    }
 
-        // 更新大小统计
-        if (oldValue == null) {
-            size.addAndGet(key.length() + value.length);
-        } else {
-            size.addAndGet(value.length - oldValue.length);
+    /**
+     * 获取键对应的最新值
+     */
+    public byte[] get(String key) {
+        return get(key, InternalKey.MAX_SEQUENCE);
+    }
+
+    /**
+     * 获取键在指定序列号时可见的值，即序列号不超过sequence的最新版本
+     */
+    public byte[] get(String key, long sequence) {
+        LookupResult result = lookup(key, sequence);
+        return result == null ? null : result.getValue();
+    }
+
+    /**
+     * 查找键在指定序列号时可见的最新版本
+     *
+     * @return 可见的版本是删除标记时返回LookupResult.DELETED，内存表中没有可见的版本时返回null
+     */
+    public LookupResult lookup(String key, long sequence) {
+        // 可见的范围删除遮盖了比它旧的版本，也遮盖了更旧的内存表和SSTable中的数据
+        long rangeDeleted = rangeTombstones.maxCoveringSequence(key, sequence);
+
+        Map.Entry<InternalKey, byte[]> entry = data.ceilingEntry(new InternalKey(key, sequence, ValueType.VALUE));
+        if (entry == null || !entry.getKey().getUserKey().equals(key)
+                || entry.getKey().getSequence() < rangeDeleted) {
+            return rangeDeleted > 0 ? LookupResult.DELETED : null;
+        }
+        if (entry.getKey().isDeletion()) {
+            return LookupResult.DELETED;
         }
+        return LookupResult.found(entry.getValue());
     }
 
     /**
-     * 获取键对应的值
+     * 获取键最新版本的序列号，删除标记和覆盖它的范围删除也算作一个版本
+     *
+     * @return 序列号，内存表中没有这个键、也没有覆盖它的范围删除时返回-1
      */
-    public byte[] get(String key) {
-        byte[] value = data.get(key);
-        if (value == TOMBSTONE) {
-            return null; // 已删除
+    public long getLatestSequence(String key) {
+        // 没有覆盖的范围删除时为0
+        long covering = rangeTombstones.maxCoveringSequence(key, InternalKey.MAX_SEQUENCE);
+        Map.Entry<InternalKey, byte[]> entry = data.ceilingEntry(InternalKey.forLookup(key));
+        if (entry == null || !entry.getKey().getUserKey().equals(key)) {
+            return covering > 0 ? covering : -1;
+        }
+        return Math.max(entry.getKey().getSequence(), covering);
+    }
+
+    /**
+     * 创建内存表上的双向游标
+     *
+     * 游标记住当前条目，每次移动都在跳表中重新查找相邻的条目，
+     * 遍历期间的并发写入可能可见，由调用方按序列号过滤。
+     */
+    public InternalIterator cursor() {
+        return new Cursor();
+    }
+
+    private class Cursor implements InternalIterator {
+        private Map.Entry<InternalKey, byte[]> current;
+
+        @Override
+        public boolean isValid() {
+            return current != null;
+        }
+
+        @Override
+        public void seekToFirst() {
+            current = data.firstEntry();
+        }
+
+        @Override
+        public void seekToLast() {
+            current = data.lastEntry();
+        }
+
+        @Override
+        public void seek(InternalKey target) {
+            current = data.ceilingEntry(target);
+        }
+
+        @Override
+        public void seekForPrev(InternalKey target) {
+            current = data.floorEntry(target);
+        }
+
+        @Override
+        public void next() {
+            current = data.higherEntry(current.getKey());
+        }
+
+        @Override
+        public void prev() {
+            current = data.lowerEntry(current.getKey());
+        }
+
+        @Override
+        public InternalKey key() {
+            return current.getKey();
+        }
+
+        @Override
+        public byte[] value() {
+            return current.getValue();
         }
-        return value;
     }
 
     /**
      * 删除键（使用墓碑标记）
+     *
+     * @param sequence 这次删除分配的序列号
      */
-    public void delete(String key) {
-        byte[] oldValue = data.put(key, TOMBSTONE);
-        sequenceNumber.incrementAndGet();
+    public void delete(String key, long sequence) {
+        add(new InternalKey(key, sequence, ValueType.DELETE), TOMBSTONE);
+    }
 
-        if (oldValue != null && oldValue != TOMBSTONE) {
-            size.addAndGet(-oldValue.length);
+    /**
+     * 删除[startKey, endKey)内的所有键
+     *
+     * @param sequence 这次删除分配的序列号
+     */
+    public void deleteRange(String startKey, String endKey, long sequence) {
+        rangeTombstones.add(new RangeTombstone(startKey, endKey, sequence));
+        size.addAndGet(startKey.length() + endKey.length() + InternalKey.TRAILER_SIZE);
+        entryCount.incrementAndGet();
+        maxSequenceNumber.accumulateAndGet(sequence, Math::max);
+    }
+
+    /**
+     * 获取内存表中的范围删除，按加入的顺序排列
+     */
+    public List<RangeTombstone> getRangeTombstones() {
+        return rangeTombstones.getTombstones();
+    }
+
+    private void add(InternalKey key, byte[] value) {
+        byte[] oldValue = data.put(key, value);
+
+        // 更新大小统计，每个版本都占用空间
+        if (oldValue == null) {
+            size.addAndGet(key.getUserKey().length() + InternalKey.TRAILER_SIZE + value.length);
+            entryCount.incrementAndGet();
+        } else {
+            size.addAndGet(value.length - oldValue.length);
         }
+        maxSequenceNumber.accumulateAndGet(key.getSequence(), Math::max);
     }
 
     /**
@@ -90,54 +217,46 @@ public class MemTable {
         return size.get();
     }
 
+    /**
+     * 获取条目数量（包括同一个键的多个版本和墓碑）
+     */
+    public long getEntryCount() {
+        return entryCount.get();
+    }
+
     /**
      * 获取最大序列号
      */
     public long getMaxSequenceNumber() {
-        return sequenceNumber.get();
+        return maxSequenceNumber.get();
     }
 
     /**
      * 刷新到SSTable
+     *
+     * @param builder Level 0的SSTable构建器，由LevelManager创建
+     * @param snapshots 活跃快照的序列号，升序排列；快照需要的旧版本会一起写出
      */
-    public SSTable flushToSSTable() throws IOException {
-        String filename = generateSSTableFilename();
-        Path path = Paths.get(config.getDataDirectory(), filename);
-
-        // 创建块构建器
-        BlockBuilder blockBuilder = new BlockBuilder(config.getBlockSize());
-        BloomFilter bloomFilter = new BloomFilter(data.size(), config.getBloomFilterFPP());
-
-        // 写入所有数据
-        BinaryEncoder encoder = new BinaryEncoder();
-        for (var entry : data.entrySet()) {
-            String key = entry.getKey();
-            byte[] value = entry.getValue();
-
-            // 跳过墓碑（在刷新时清理）
-            if (value == TOMBSTONE) {
-                continue;
+    public SSTable flushToSSTable(SSTableBuilder builder, long[] snapshots) throws IOException {
+        try {
+            // 内存表本身有序，按顺序写入即可；版本的取舍交给VersionFilter。
+            // 墓碑和范围删除都必须写入文件，否则更旧的SSTable中被删除的值会重新出现
+            // 刷新的是不可变内存表，范围删除不再变化，在这里一次构建查询索引
+            RangeTombstoneSet tombstones = rangeTombstones.isEmpty()
+                    ? RangeTombstoneSet.EMPTY : new RangeTombstoneSet(rangeTombstones.getTombstones());
+            VersionFilter filter = new VersionFilter(snapshots, false, tombstones, builder::add);
+            for (var entry : data.entrySet()) {
+                filter.add(entry.getKey(), entry.getValue());
             }
+            filter.finish();
+            for (RangeTombstone tombstone : tombstones.getTombstones()) {
+                builder.addRangeTombstone(tombstone);
+            }
+            return builder.finish();
 
-            // 添加到布隆过滤器
-            bloomFilter.add(key);
-
-            // 编码键值对
-            byte[] encodedEntry = encoder.encode(key, value);
-            blockBuilder.add(key, encodedEntry);
+        } catch (IOException e) {
+            builder.abandon();
+            throw e;
         }
-
-        // 构建SSTable
-        SSTable sstable = new SSTable(path, blockBuilder.build(), bloomFilter);
-        return sstable;
-    }
-
-    /**
-     * 生成SSTable文件名
-     */
-    private String generateSSTableFilename() {
-        return String.format("sstable_%d_%d.dat",
-                System.currentTimeMillis(),
-                sequenceNumber.get());
     }
-}
\ No newline at end of file
+}
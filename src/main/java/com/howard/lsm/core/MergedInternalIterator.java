@@ -0,0 +1,148 @@
+package com.howard.lsm.core;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并游标
+ *
+ * 把多个有序的内部键游标合并成一个有序序列，用堆选出当前条目：正向移动时是
+ * 最小堆，反向移动时是最大堆。内部键相同时（刷新完成到内存表移除之间，同一个版本
+ * 同时存在于不可变内存表和新的SSTable中）按输入的顺序排列，越靠前的输入越新。
+ *
+ * 改变移动方向时，需要把其余输入重新定位到当前条目的另一侧再重建堆，
+ * 同方向的连续移动只需要调整堆顶。
+ */
+class MergedInternalIterator implements InternalIterator {
+    private final List<InternalIterator> children;
+    private PriorityQueue<Integer> heap;
+    private boolean forward = true;
+
+    /**
+     * @param children 各路输入，按从新到旧的顺序排列
+     */
+    MergedInternalIterator(List<InternalIterator> children) {
+        this.children = children;
+        this.heap = new PriorityQueue<>(this::compare);
+    }
+
+    @Override
+    public boolean isValid() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public void seekToFirst() {
+        children.forEach(InternalIterator::seekToFirst);
+        rebuild(true);
+    }
+
+    @Override
+    public void seekToLast() {
+        children.forEach(InternalIterator::seekToLast);
+        rebuild(false);
+    }
+
+    @Override
+    public void seek(InternalKey target) {
+        children.forEach(child -> child.seek(target));
+        rebuild(true);
+    }
+
+    @Override
+    public void seekForPrev(InternalKey target) {
+        children.forEach(child -> child.seekForPrev(target));
+        rebuild(false);
+    }
+
+    @Override
+    public void next() {
+        if (!forward) {
+            // 其余输入停在当前条目之前，移动到当前条目之后
+            int current = heap.peek();
+            InternalKey key = key();
+            for (int i = 0; i < children.size(); i++) {
+                if (i == current) {
+                    continue;
+                }
+                InternalIterator child = children.get(i);
+                child.seek(key);
+                if (child.isValid() && i < current && child.key().equals(key)) {
+                    child.next();
+                }
+            }
+            children.get(current).next();
+            rebuild(true);
+            return;
+        }
+
+        int current = heap.poll();
+        InternalIterator child = children.get(current);
+        child.next();
+        if (child.isValid()) {
+            heap.offer(current);
+        }
+    }
+
+    @Override
+    public void prev() {
+        if (forward) {
+            // 其余输入停在当前条目之后，移动到当前条目之前
+            int current = heap.peek();
+            InternalKey key = key();
+            for (int i = 0; i < children.size(); i++) {
+                if (i == current) {
+                    continue;
+                }
+                InternalIterator child = children.get(i);
+                child.seekForPrev(key);
+                if (child.isValid() && i > current && child.key().equals(key)) {
+                    child.prev();
+                }
+            }
+            children.get(current).prev();
+            rebuild(false);
+            return;
+        }
+
+        int current = heap.poll();
+        InternalIterator child = children.get(current);
+        child.prev();
+        if (child.isValid()) {
+            heap.offer(current);
+        }
+    }
+
+    @Override
+    public InternalKey key() {
+        return children.get(heap.peek()).key();
+    }
+
+    @Override
+    public byte[] value() {
+        return children.get(heap.peek()).value();
+    }
+
+    /**
+     * 按新的方向重建堆，只包含有效的输入
+     */
+    private void rebuild(boolean forward) {
+        this.forward = forward;
+        heap = forward
+                ? new PriorityQueue<>(this::compare)
+                : new PriorityQueue<>((a, b) -> compare(b, a));
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).isValid()) {
+                heap.offer(i);
+            }
+        }
+    }
+
+    /**
+     * 按(内部键, 输入编号)的顺序比较两路输入的当前条目
+     */
+    private int compare(int a, int b) {
+        int result = children.get(a).key().compareTo(children.get(b).key());
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+}
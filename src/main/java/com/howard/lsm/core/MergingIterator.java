@@ -0,0 +1,315 @@
+package com.howard.lsm.core;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 归并迭代器
+ *
+ * 把内存表和SSTable的有序序列合并成一个按用户键排序的视图，
+ * 只返回指定序列号（快照）可见的数据：
+ * 1. 序列号大于快照的版本被跳过
+ * 2. 同一个键只返回快照可见的最新版本
+ * 3. 最新可见版本是删除标记，或被可见的范围删除遮盖时，整个键被隐藏
+ * 4. 只返回[lowerBound, upperBound)范围内的键，越过边界时停止，不再读取之后的块
+ *
+ * 迭代器是一个双向游标，总是停在某个键上或处于无效状态：
+ * - seekToFirst/seekToLast/seek/seekForPrev 定位游标
+ * - next() 返回当前键值对并向后移动，prev() 返回当前键值对并向前移动，
+ *   例如"T之前最新的N条记录"：先seekForPrev(T)，再调用N次prev()
+ * - hasNext() 与 isValid() 相同，按Iterator的方式使用时从第一个键开始正向遍历
+ *
+ * 迭代器在创建时为涉及的SSTable增加了引用，遍历期间即使文件被压缩淘汰也不会删除，
+ * 因此用完后必须关闭；读取过程中不持有任何全局锁，不会阻塞写入和压缩。
+ * 迭代器不是线程安全的。
+ */
+public final class MergingIterator implements Iterator<Map.Entry<String, byte[]>>, AutoCloseable {
+    private final InternalIterator iter;
+    private final RangeTombstoneSet rangeTombstones;
+    private final long sequence;
+    private final String lowerBound;
+    private final String upperBound;
+    private final List<SSTable> tables;
+    private final Snapshot ownedSnapshot;
+
+    // 正向移动时iter停在当前键的条目上；反向移动时iter停在当前键的所有条目之前
+    private boolean forward = true;
+    private boolean valid;
+    private String currentKey;
+    private byte[] currentValue;
+    private boolean closed;
+
+    /**
+     * @param sources 各路有序输入，按从新到旧的顺序排列
+     * @param rangeTombstones 各路输入中的范围删除
+     * @param sequence 快照的序列号
+     * @param lowerBound 键的下界（包含），为null表示没有下界
+     * @param upperBound 键的上界（不包含），为null表示没有上界
+     * @param tables 创建时已经增加引用的SSTable，关闭时释放
+     * @param ownedSnapshot 迭代器自己创建的快照，关闭时一起释放；使用外部快照时为null
+     */
+    public MergingIterator(List<InternalIterator> sources, RangeTombstoneSet rangeTombstones, long sequence,
+                           String lowerBound, String upperBound, List<SSTable> tables, Snapshot ownedSnapshot) {
+        this.iter = new MergedInternalIterator(sources);
+        this.rangeTombstones = rangeTombstones;
+        this.sequence = sequence;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.tables = tables;
+        this.ownedSnapshot = ownedSnapshot;
+        seekToFirst();
+    }
+
+    /**
+     * 游标是否停在某个键上
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * 当前键，调用前游标必须有效
+     */
+    public String key() {
+        checkValid();
+        return currentKey;
+    }
+
+    /**
+     * 当前值，调用前游标必须有效
+     */
+    public byte[] value() {
+        checkValid();
+        return currentValue;
+    }
+
+    /**
+     * 移动到范围内的第一个键
+     */
+    public void seekToFirst() {
+        checkOpen();
+        if (lowerBound != null) {
+            iter.seek(InternalKey.forLookup(lowerBound));
+        } else {
+            iter.seekToFirst();
+        }
+        findNextUserEntry(null);
+    }
+
+    /**
+     * 移动到范围内的最后一个键
+     */
+    public void seekToLast() {
+        checkOpen();
+        if (upperBound != null) {
+            // 停在上界之前的最后一个条目
+            iter.seek(InternalKey.forLookup(upperBound));
+            if (iter.isValid()) {
+                iter.prev();
+            } else {
+                iter.seekToLast();
+            }
+        } else {
+            iter.seekToLast();
+        }
+        findPrevUserEntry();
+    }
+
+    /**
+     * 移动到第一个不小于key的键
+     */
+    public void seek(String key) {
+        checkOpen();
+        if (lowerBound != null && key.compareTo(lowerBound) < 0) {
+            key = lowerBound;
+        }
+        iter.seek(new InternalKey(key, sequence, ValueType.VALUE));
+        findNextUserEntry(null);
+    }
+
+    /**
+     * 移动到最后一个不大于key的键
+     */
+    public void seekForPrev(String key) {
+        checkOpen();
+        if (upperBound != null && key.compareTo(upperBound) >= 0) {
+            seekToLast();
+            return;
+        }
+        // 该用户键的所有版本中最大的内部键：序列号0、类型DELETE
+        iter.seekForPrev(new InternalKey(key, 0, ValueType.DELETE));
+        findPrevUserEntry();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return valid;
+    }
+
+    /**
+     * 返回当前键值对，并移动到下一个键
+     */
+    @Override
+    public Map.Entry<String, byte[]> next() {
+        Map.Entry<String, byte[]> entry = currentEntry();
+        moveForward();
+        return entry;
+    }
+
+    /**
+     * 返回当前键值对，并移动到上一个键
+     */
+    public Map.Entry<String, byte[]> prev() {
+        Map.Entry<String, byte[]> entry = currentEntry();
+        moveBackward();
+        return entry;
+    }
+
+    private void moveForward() {
+        if (!forward) {
+            // iter停在当前键之前，先回到当前键的条目上，再由下面的逻辑跳过它们
+            forward = true;
+            if (iter.isValid()) {
+                iter.next();
+            } else {
+                iter.seekToFirst();
+            }
+        }
+        findNextUserEntry(currentKey);
+    }
+
+    private void moveBackward() {
+        if (forward) {
+            // iter停在当前键的条目上，退到当前键的所有条目之前
+            String key = currentKey;
+            do {
+                iter.prev();
+            } while (iter.isValid() && iter.key().getUserKey().compareTo(key) >= 0);
+        }
+        findPrevUserEntry();
+    }
+
+    /**
+     * 从iter的位置向后查找第一个可见且未被删除的键
+     *
+     * @param skipKey 不大于这个键的条目都跳过（已经返回过的键），为null时不跳过
+     */
+    private void findNextUserEntry(String skipKey) {
+        forward = true;
+        while (iter.isValid()) {
+            InternalKey key = iter.key();
+            String userKey = key.getUserKey();
+            if (upperBound != null && userKey.compareTo(upperBound) >= 0) {
+                break;
+            }
+            if (key.getSequence() <= sequence
+                    && (skipKey == null || userKey.compareTo(skipKey) > 0)) {
+                if (isDeleted(key)) {
+                    // 最新的可见版本是删除标记，跳过这个键的所有旧版本
+                    skipKey = userKey;
+                } else {
+                    setCurrent(userKey, iter.value());
+                    return;
+                }
+            }
+            iter.next();
+        }
+        clearCurrent();
+    }
+
+    /**
+     * 从iter的位置向前查找上一个可见且未被删除的键
+     *
+     * 反向遍历时同一个键的版本从旧到新出现，一直走到更小的键为止，
+     * 记下的最后一个可见版本就是该键在快照中的值。
+     */
+    private void findPrevUserEntry() {
+        forward = false;
+        String savedKey = null;
+        byte[] savedValue = null;
+        while (iter.isValid()) {
+            InternalKey key = iter.key();
+            String userKey = key.getUserKey();
+            if (lowerBound != null && userKey.compareTo(lowerBound) < 0) {
+                break;
+            }
+            if (key.getSequence() <= sequence) {
+                if (savedKey != null && userKey.compareTo(savedKey) < 0) {
+                    break; // 已经找到较大键的值
+                }
+                if (isDeleted(key)) {
+                    savedKey = null;
+                    savedValue = null;
+                } else {
+                    savedKey = userKey;
+                    savedValue = iter.value();
+                }
+            }
+            iter.prev();
+        }
+
+        if (savedKey == null) {
+            clearCurrent();
+        } else {
+            setCurrent(savedKey, savedValue);
+        }
+    }
+
+    /**
+     * 可见的版本是否表示删除：本身是删除标记，或者被更新的范围删除遮盖
+     */
+    private boolean isDeleted(InternalKey key) {
+        return key.isDeletion()
+                || rangeTombstones.isDeleted(key.getUserKey(), key.getSequence(), sequence);
+    }
+
+    private void setCurrent(String key, byte[] value) {
+        valid = true;
+        currentKey = key;
+        currentValue = value;
+    }
+
+    private void clearCurrent() {
+        valid = false;
+        currentKey = null;
+        currentValue = null;
+    }
+
+    private Map.Entry<String, byte[]> currentEntry() {
+        if (!valid) {
+            throw new NoSuchElementException();
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(currentKey, currentValue);
+    }
+
+    private void checkValid() {
+        if (!valid) {
+            throw new IllegalStateException("Iterator is not positioned at an entry");
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Iterator is closed");
+        }
+    }
+
+    /**
+     * 释放SSTable引用和迭代器自己持有的快照
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        clearCurrent();
+        tables.forEach(SSTable::unref);
+        if (ownedSnapshot != null) {
+            ownedSnapshot.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.howard.lsm.core;
+
+import java.util.TreeMap;
+
+/**
+ * 已发布的序列号
+ *
+ * 写入在分段锁内分配序列号，但写WAL和内存表的耗时各不相同，完成的顺序与分配的顺序
+ * 不一定一致。只有当不超过某个序列号的写入全部完成后，才把这个序列号发布出去：
+ * 快照取已发布的序列号，能看到的内容从此不再变化，也不必等待进行中的写入。
+ *
+ * 完成的写入前面还有未完成的写入时先记录下来，等前面的写入完成后一起发布。
+ * 写入失败时分配的序列号同样要标记为完成，否则之后的序列号永远无法发布。
+ */
+public class PublishedSequence {
+    // 已完成但尚未发布的序列号区间，起始序列号 -> 结束序列号
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+    private volatile long published;
+
+    /**
+     * 获取已发布的序列号，不超过它的写入都已经进入内存表
+     */
+    public long get() {
+        return published;
+    }
+
+    /**
+     * 恢复完成后设置初始值
+     */
+    public synchronized void reset(long sequence) {
+        completed.clear();
+        published = sequence;
+    }
+
+    /**
+     * 标记[first, last]内的序列号已经完成，并发布所有前面没有空缺的序列号
+     */
+    public synchronized void complete(long first, long last) {
+        if (first != published + 1) {
+            completed.put(first, last);
+            return;
+        }
+
+        long next = last;
+        Long end;
+        while ((end = completed.remove(next + 1)) != null) {
+            next = end;
+        }
+        published = next;
+    }
+}
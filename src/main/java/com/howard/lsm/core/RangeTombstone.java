@@ -0,0 +1,34 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+/**
+ * 范围删除标记
+ *
+ * 删除[startKey, endKey)内的所有键：序列号小于sequence的版本都被遮盖，
+ * 之后的写入不受影响。一个范围删除只占一个条目，不需要为范围内的每个键写墓碑。
+ */
+@Getter
+public final class RangeTombstone {
+    private final String startKey;
+    private final String endKey;
+    private final long sequence;
+
+    public RangeTombstone(String startKey, String endKey, long sequence) {
+        this.startKey = startKey;
+        this.endKey = endKey;
+        this.sequence = sequence;
+    }
+
+    /**
+     * 键是否落在删除范围内
+     */
+    public boolean covers(String key) {
+        return startKey.compareTo(key) <= 0 && key.compareTo(endKey) < 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + startKey + ", " + endKey + ")@" + sequence;
+    }
+}
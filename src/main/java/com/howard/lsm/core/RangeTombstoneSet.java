@@ -0,0 +1,98 @@
+package com.howard.lsm.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 范围删除标记的查询索引
+ *
+ * 把可能互相重叠的删除范围按所有端点切分成互不重叠的片段，每个片段记录覆盖它的
+ * 所有标记的序列号（降序）。查询一个键时二分定位片段，再找出快照可见的最大序列号，
+ * 耗时与标记总数无关。索引创建后不再修改，可以被多个线程同时读取。
+ */
+public final class RangeTombstoneSet {
+    public static final RangeTombstoneSet EMPTY = new RangeTombstoneSet(List.of());
+
+    // 片段i覆盖[boundaries[i], boundaries[i + 1])，最后一个端点之后没有片段
+    private final String[] boundaries;
+    private final long[][] sequences;
+    private final List<RangeTombstone> tombstones;
+
+    public RangeTombstoneSet(Collection<RangeTombstone> tombstones) {
+        this.tombstones = List.copyOf(tombstones);
+
+        TreeSet<String> points = new TreeSet<>();
+        for (RangeTombstone tombstone : tombstones) {
+            points.add(tombstone.getStartKey());
+            points.add(tombstone.getEndKey());
+        }
+        this.boundaries = points.toArray(new String[0]);
+        this.sequences = new long[Math.max(0, boundaries.length - 1)][];
+
+        List<List<Long>> covering = new ArrayList<>();
+        for (int i = 0; i < sequences.length; i++) {
+            covering.add(new ArrayList<>());
+        }
+        for (RangeTombstone tombstone : tombstones) {
+            int from = Arrays.binarySearch(boundaries, tombstone.getStartKey());
+            int to = Arrays.binarySearch(boundaries, tombstone.getEndKey());
+            for (int i = from; i < to; i++) {
+                covering.get(i).add(tombstone.getSequence());
+            }
+        }
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = covering.get(i).stream()
+                    .sorted((a, b) -> Long.compare(b, a))
+                    .mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    public boolean isEmpty() {
+        return tombstones.isEmpty();
+    }
+
+    /**
+     * 获取所有标记，按加入的顺序排列
+     */
+    public List<RangeTombstone> getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * 覆盖key、且序列号不超过sequence的标记中最大的序列号
+     *
+     * 序列号小于返回值的版本已被删除。
+     *
+     * @return 没有这样的标记时返回0
+     */
+    public long maxCoveringSequence(String key, long sequence) {
+        if (sequences.length == 0) {
+            return 0;
+        }
+
+        int index = Arrays.binarySearch(boundaries, key);
+        if (index < 0) {
+            index = -index - 2; // 最后一个不大于key的端点
+        }
+        if (index < 0 || index >= sequences.length) {
+            return 0;
+        }
+
+        for (long covering : sequences[index]) {
+            if (covering <= sequence) {
+                return covering;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 序列号为sequence的版本是否被可见的范围删除遮盖
+     */
+    public boolean isDeleted(String key, long sequence, long snapshot) {
+        return maxCoveringSequence(key, snapshot) > sequence;
+    }
+}
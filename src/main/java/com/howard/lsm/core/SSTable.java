@@ -1,17 +1,32 @@
 package com.howard.lsm.core;
 
+import com.howard.lsm.cache.BlockCache;
+import com.howard.lsm.config.ReadMode;
+import com.howard.lsm.serialization.BinaryDecoder;
+import com.howard.lsm.serialization.BinaryEncoder.BlockIndex;
+import com.howard.lsm.serialization.BinaryEncoder.TableProperties;
 import com.howard.lsm.storage.Block;
 import com.howard.lsm.storage.BloomFilter;
-import com.howard.lsm.serialization.BinaryDecoder;
 import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * 排序字符串表(SSTable)实现
@@ -23,16 +38,42 @@ import java.util.List;
  * 4. 布隆过滤器：快速判断键是否存在
  *
  * 文件结构：
- * [数据块1][数据块2]...[数据块N][索引块][布隆过滤器][元数据]
+ * [数据块1][数据块2]...[数据块N][范围删除块][索引块][布隆过滤器][属性块][Footer]
+ *
+ * Footer固定为48字节，位于文件末尾：
+ * [索引偏移8][索引长度4][过滤器偏移8][过滤器长度4][属性偏移8][属性长度4][格式版本4][魔数8]
+ *
+ * 数据块使用CRC32C校验，块中的键是带序列号和类型的内部键，属性块记录表中的最大序列号。
+ * 索引、过滤器、属性和范围删除块末尾各带一个CRC32C校验和，打开文件时校验，不一致则拒绝打开。
+ * 范围删除块是可选的，位置记录在属性块中，打开文件时整体读入内存。
+ *
+ * 打开文件时只读取Footer，再根据其中的偏移量读取索引、过滤器和属性；
+ * 数据块不常驻内存，查找时按索引定位后通过FileChannel的定位读取按需加载，
+ * 内存占用随访问的数据量而不是文件大小增长。文件由SSTableBuilder生成。
+ *
+ * 读取的数据块会放入所有表共享的BlockCache，热点块无需再次读盘和校验。
+ *
+ * 以MMAP方式打开时，整个文件在打开时映射到内存，数据块直接是映射区域的切片，
+ * 不经过块缓存，也没有读取系统调用和数据复制。
  */
 public class SSTable {
+    private static final Logger logger = LoggerFactory.getLogger(SSTable.class);
+
+    static final long MAGIC_NUMBER = 0x4C534D5353544142L; // "LSMSSTAB"
+    static final int FORMAT_VERSION = 4;
+    static final int MIN_FORMAT_VERSION = 4;
+    static final int FOOTER_SIZE = 48;
+
+    // 表编号生成器，为块缓存提供进程内唯一的表标识
+    private static final AtomicLong NEXT_TABLE_ID = new AtomicLong(0);
+
     /**
      * -- GETTER --
      *  获取文件路径
      */
     @Getter
     private final Path filePath;
-    private final List<Block> blocks;
+    private final List<BlockIndex.Entry> blockIndex;
     private final BloomFilter bloomFilter;
     /**
      * -- GETTER --
@@ -40,10 +81,24 @@ public class SSTable {
      */
     @Getter
     private final long fileSize;
+    /**
+     * -- GETTER --
+     *  获取表中最小的键，压缩时用于判断键范围是否重叠
+     */
+    @Getter
+    private final String smallestKey;
+    /**
+     * -- GETTER --
+     *  获取表中最大的键
+     */
     @Getter
-    private final long minKey;
+    private final String largestKey;
+    /**
+     * -- GETTER --
+     *  获取条目数量
+     */
     @Getter
-    private final long maxKey;
+    private final long entryCount;
     /**
      * -- GETTER --
      *  获取级别
@@ -51,46 +106,85 @@ public class SSTable {
     @Getter
     private final int level;
 
-    // 文件通道，用于读取数据
-    private FileChannel fileChannel;
+    // 文件通道，用于按需读取数据块
+    private final FileChannel fileChannel;
     private final BinaryDecoder decoder;
 
+    // 共享块缓存，为null时不缓存
+    private final BlockCache blockCache;
+    private final long tableId;
+
+    // 文件的只读映射，以PREAD方式打开时为null
+    private final MappedByteBuffer mappedData;
+    // 映射方式下已经校验过的数据块，按块编号索引；映射的内容不会改变，每个块只需校验一次
+    private final AtomicReferenceArray<Block> mappedBlocks;
+
     /**
-     * 构造函数：创建新的SSTable
+     * -- GETTER --
+     *  获取表中的最大序列号
      */
-    public SSTable(Path filePath, List<Block> blocks, BloomFilter bloomFilter) throws IOException {
-        this.filePath = filePath;
-        this.blocks = new ArrayList<>(blocks);
-        this.bloomFilter = bloomFilter;
-        this.decoder = new BinaryDecoder();
-        this.level = 0; // 新创建的SSTable默认在Level 0
+    @Getter
+    private final long largestSequence;
+
+    /**
+     * -- GETTER --
+     *  获取表中的范围删除
+     */
+    @Getter
+    private final RangeTombstoneSet rangeTombstones;
 
-        // 计算文件大小和键范围
-        this.fileSize = calculateFileSize();
-        this.minKey = calculateMinKey();
-        this.maxKey = calculateMaxKey();
+    // 引用计数：LevelManager持有一个引用，迭代器遍历期间各持有一个
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean obsolete;
 
-        // 将数据写入磁盘
-        writeToFile();
+    /**
+     * 构造函数：从现有文件加载SSTable，使用定位读取且不使用块缓存
+     */
+    public SSTable(Path filePath, int level) throws IOException {
+        this(filePath, level, null, ReadMode.PREAD);
     }
 
     /**
      * 构造函数：从现有文件加载SSTable
+     *
+     * 只读取Footer、索引块、布隆过滤器和属性块，不读取数据块。
+     *
+     * @param blockCache 共享的块缓存，可以为null
+     * @param readMode 数据块的读取方式
      */
-    public SSTable(Path filePath, int level) throws IOException {
+    public SSTable(Path filePath, int level, BlockCache blockCache, ReadMode readMode) throws IOException {
         this.filePath = filePath;
         this.level = level;
+        this.blockCache = blockCache;
+        this.tableId = NEXT_TABLE_ID.incrementAndGet();
         this.decoder = new BinaryDecoder();
-        this.blocks = new ArrayList<>();
-
-        // 从文件读取数据
-        loadFromFile();
-
-        // 重新计算属性
-        this.bloomFilter = loadBloomFilter();
-        this.fileSize = filePath.toFile().length();
-        this.minKey = calculateMinKey();
-        this.maxKey = calculateMaxKey();
+        this.fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+
+        try {
+            this.fileSize = fileChannel.size();
+            this.mappedData = readMode == ReadMode.MMAP ? mapFile() : null;
+            Footer footer = readFooter();
+
+            this.blockIndex = decoder.decodeBlockIndex(
+                    readFully(footer.indexOffset, footer.indexSize)).getEntries();
+            this.mappedBlocks = mappedData != null ? new AtomicReferenceArray<>(blockIndex.size()) : null;
+            this.bloomFilter = loadBloomFilter(footer);
+
+            TableProperties properties = decoder.decodeTableProperties(
+                    readFully(footer.propertiesOffset, footer.propertiesSize));
+            this.smallestKey = properties.getSmallestKey();
+            this.largestKey = properties.getLargestKey();
+            this.entryCount = properties.getEntryCount();
+            this.largestSequence = properties.getLargestSequence();
+            this.rangeTombstones = properties.getRangeDeletionSize() == 0
+                    ? RangeTombstoneSet.EMPTY
+                    : new RangeTombstoneSet(decoder.decodeRangeTombstones(
+                            readFully(properties.getRangeDeletionOffset(), properties.getRangeDeletionSize())));
+
+        } catch (IOException e) {
+            fileChannel.close();
+            throw new IOException("Failed to open SSTable: " + filePath, e);
+        }
     }
 
     /**
@@ -103,126 +197,427 @@ public class SSTable {
         }
 
         // 2. 使用二分查找定位块
-        Block targetBlock = findBlock(key);
-        if (targetBlock == null) {
+        int blockNumber = findBlock(key);
+        if (blockNumber < 0) {
             return null;
         }
 
         // 3. 在块内查找键
-        return targetBlock.get(key);
+        return readBlock(blockNumber, true).get(key);
     }
 
     /**
-     * 检查键是否可能存在
+     * 查找键在指定序列号时可见的值
      */
-    public boolean mightContain(String key) {
-        return bloomFilter.mightContain(key);
+    public byte[] get(String key, long sequence) throws IOException {
+        LookupResult result = lookup(key, sequence);
+        return result == null ? null : result.getValue();
     }
 
     /**
-     * 获取键范围
+     * 查找键在指定序列号时可见的最新版本
+     *
+     * 同一个键的多个版本可能跨越相邻的块：当前块中的版本都比sequence新时，
+     * 继续在下一个块中查找。覆盖这个键的范围删除比找到的版本新时，键已被删除，
+     * 即使表中没有这个键也一样：更旧的层级中的版本同样被遮盖。
+     *
+     * @return 可见的版本是删除标记时返回LookupResult.DELETED，表中没有可见的版本时返回null
      */
-    public boolean keyInRange(String key) {
-        return key.compareTo(String.valueOf(minKey)) >= 0 &&
-                key.compareTo(String.valueOf(maxKey)) <= 0;
+    public LookupResult lookup(String key, long sequence) throws IOException {
+        long rangeDeleted = rangeTombstones.maxCoveringSequence(key, sequence);
+        LookupResult notFound = rangeDeleted > 0 ? LookupResult.DELETED : null;
+        if (!bloomFilter.mightContain(key)) {
+            return notFound;
+        }
+
+        for (int blockNumber = findBlock(key); blockNumber >= 0 && blockNumber < blockIndex.size(); blockNumber++) {
+            Block block = readBlock(blockNumber, true);
+            int index = block.seek(key, sequence);
+            if (index < block.getEntryCount()) {
+                if (!block.keyAt(index).equals(key) || block.sequenceAt(index) < rangeDeleted) {
+                    return notFound;
+                }
+                if (block.typeAt(index) == ValueType.DELETE) {
+                    return LookupResult.DELETED;
+                }
+                return LookupResult.found(block.valueAt(index));
+            }
+        }
+        return notFound;
     }
 
     /**
-     * 使用二分查找定位包含指定键的块
+     * 获取键在表中最新版本的序列号，删除标记和覆盖它的范围删除也算作一个版本
+     *
+     * @return 序列号，表中没有这个键、也没有覆盖它的范围删除时返回-1
      */
-    private Block findBlock(String key) {
-        int left = 0, right = blocks.size() - 1;
+    public long getLatestSequence(String key) throws IOException {
+        // 没有覆盖的范围删除时为0，范围删除不进入布隆过滤器，要先于它检查
+        long covering = rangeTombstones.maxCoveringSequence(key, InternalKey.MAX_SEQUENCE);
+        long notFound = covering > 0 ? covering : -1;
+        if (!bloomFilter.mightContain(key)) {
+            return notFound;
+        }
 
-        while (left <= right) {
-            int mid = left + (right - left) / 2;
-            Block block = blocks.get(mid);
+        int blockNumber = findBlock(key);
+        if (blockNumber < 0) {
+            return notFound;
+        }
 
-            if (block.containsKey(key)) {
-                return block;
-            } else if (block.getMaxKey().compareTo(key) < 0) {
-                left = mid + 1;
-            } else {
-                right = mid - 1;
+        Block block = readBlock(blockNumber, true);
+        int index = block.seek(key);
+        if (index < block.getEntryCount() && block.keyAt(index).equals(key)) {
+            return Math.max(block.sequenceAt(index), covering);
+        }
+        return notFound;
+    }
+
+    /**
+     * 增加引用计数，迭代器在遍历期间持有引用，防止文件被压缩删除
+     *
+     * @return 文件已经被释放时返回false
+     */
+    public boolean ref() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
             }
         }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时关闭文件；已被压缩淘汰的文件同时删除
+     */
+    public void unref() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            logger.warn("Failed to close SSTable: {}", filePath, e);
+        }
+        if (obsolete) {
+            filePath.toFile().delete();
+        }
+    }
 
-        return null;
+    /**
+     * 标记文件已被压缩淘汰，引用全部释放后删除
+     */
+    public void markObsolete() {
+        obsolete = true;
     }
 
     /**
-     * 写入文件
+     * 检查键是否可能存在
      */
-    private void writeToFile() throws IOException {
-        try (FileChannel channel = FileChannel.open(filePath,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.TRUNCATE_EXISTING)) {
+    public boolean mightContain(String key) {
+        return bloomFilter.mightContain(key);
+    }
 
-            // 写入数据块
-            for (Block block : blocks) {
-                block.writeTo(channel);
+    /**
+     * 按内部键的顺序遍历表中的所有条目
+     *
+     * 块之间按键有序排列，依次遍历每个块即可得到整张表的有序序列，
+     * 压缩时以此作为归并的输入。数据块在遍历到时才读取。
+     * 顺序遍历的块通常不会被再次访问，因此不放入块缓存，避免冲掉热点块。
+     */
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator() {
+        return new Iterator<>() {
+            private int nextBlock = 0;
+            private Iterator<Map.Entry<InternalKey, byte[]>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && nextBlock < blockIndex.size()) {
+                    try {
+                        current = readBlock(nextBlock++, false).iterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return current.hasNext();
             }
 
-            // 写入布隆过滤器
-            writeBloomFilter(channel);
+            @Override
+            public Map.Entry<InternalKey, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
 
-            // 写入元数据
-            writeMetadata(channel);
+    /**
+     * 创建表上的双向游标
+     *
+     * 两级定位：先用块索引找到块，再在块内二分查找。跨越块边界时才读取相邻的块，
+     * 范围查询通常只访问少量块，读到的块可以放入缓存。
+     *
+     * @param fillCache 是否把读到的块放入缓存
+     */
+    public InternalIterator cursor(boolean fillCache) {
+        return new Cursor(fillCache);
+    }
+
+    /**
+     * SSTable游标，由当前块的编号和块内游标组成
+     */
+    private class Cursor implements InternalIterator {
+        private final boolean fillCache;
+        private int blockNumber = -1;
+        private InternalIterator blockCursor;
+
+        Cursor(boolean fillCache) {
+            this.fillCache = fillCache;
+        }
+
+        @Override
+        public boolean isValid() {
+            return blockCursor != null && blockCursor.isValid();
+        }
+
+        @Override
+        public void seekToFirst() {
+            loadBlock(0);
+            if (blockCursor != null) {
+                blockCursor.seekToFirst();
+            }
+            skipEmptyBlocksForward();
+        }
+
+        @Override
+        public void seekToLast() {
+            loadBlock(blockIndex.size() - 1);
+            if (blockCursor != null) {
+                blockCursor.seekToLast();
+            }
+            skipEmptyBlocksBackward();
+        }
+
+        @Override
+        public void seek(InternalKey target) {
+            // 索引记录每个块的最大用户键，同一个键的较旧版本可能在下一个块中
+            int block = findBlock(target.getUserKey());
+            if (block < 0) {
+                loadBlock(-1);
+                return;
+            }
+            loadBlock(block);
+            blockCursor.seek(target);
+            skipEmptyBlocksForward();
+        }
+
+        @Override
+        public void seekForPrev(InternalKey target) {
+            seek(target);
+            if (!isValid()) {
+                seekToLast();
+            } else if (key().compareTo(target) > 0) {
+                prev();
+            }
+        }
+
+        @Override
+        public void next() {
+            blockCursor.next();
+            skipEmptyBlocksForward();
+        }
+
+        @Override
+        public void prev() {
+            blockCursor.prev();
+            skipEmptyBlocksBackward();
+        }
+
+        @Override
+        public InternalKey key() {
+            return blockCursor.key();
+        }
+
+        @Override
+        public byte[] value() {
+            return blockCursor.value();
+        }
+
+        private void skipEmptyBlocksForward() {
+            while (blockCursor != null && !blockCursor.isValid()) {
+                if (blockNumber + 1 >= blockIndex.size()) {
+                    loadBlock(-1);
+                    return;
+                }
+                loadBlock(blockNumber + 1);
+                blockCursor.seekToFirst();
+            }
+        }
+
+        private void skipEmptyBlocksBackward() {
+            while (blockCursor != null && !blockCursor.isValid()) {
+                if (blockNumber <= 0) {
+                    loadBlock(-1);
+                    return;
+                }
+                loadBlock(blockNumber - 1);
+                blockCursor.seekToLast();
+            }
+        }
+
+        /**
+         * 加载指定编号的块，编号超出范围时游标变为无效
+         */
+        private void loadBlock(int number) {
+            if (number < 0 || number >= blockIndex.size()) {
+                blockNumber = -1;
+                blockCursor = null;
+                return;
+            }
+            if (number == blockNumber && blockCursor != null) {
+                return;
+            }
+            try {
+                blockCursor = readBlock(number, fillCache).cursor();
+                blockNumber = number;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
     /**
-     * 从文件加载
+     * 判断表的键范围是否与[smallest, largest]重叠
      */
-    private void loadFromFile() throws IOException {
-        // 实现从文件加载SSTable的逻辑
-        // 这里简化实现，实际中需要解析文件格式
+    public boolean overlaps(String smallest, String largest) {
+        return largestKey.compareTo(smallest) >= 0 && smallestKey.compareTo(largest) <= 0;
     }
 
     /**
-     * 写入布隆过滤器
+     * 键是否落在表的键范围[smallestKey, largestKey]内
      */
-    private void writeBloomFilter(FileChannel channel) throws IOException {
-        // 实现布隆过滤器的序列化
+    public boolean keyInRange(String key) {
+        return smallestKey.compareTo(key) <= 0 && key.compareTo(largestKey) <= 0;
     }
 
     /**
-     * 加载布隆过滤器
+     * 使用二分查找定位可能包含指定键的块
+     *
+     * 索引条目记录每个块的最大键，第一个最大键不小于目标键的块
+     * 就是唯一可能包含该键的块。
+     *
+     * @return 块编号，键超出表的范围时返回-1
      */
-    private BloomFilter loadBloomFilter() throws IOException {
-        // 实现布隆过滤器的反序列化
-        return new BloomFilter(1000, 0.01); // 临时实现
+    private int findBlock(String key) {
+        int left = 0, right = blockIndex.size() - 1;
+        int result = -1;
+
+        while (left <= right) {
+            int mid = left + (right - left) / 2;
+
+            if (blockIndex.get(mid).getKey().compareTo(key) >= 0) {
+                result = mid;
+                right = mid - 1;
+            } else {
+                left = mid + 1;
+            }
+        }
+
+        return result;
     }
 
     /**
-     * 写入元数据
+     * 加载指定编号的数据块
+     *
+     * 映射方式下直接取映射区域的切片，第一次访问时校验并保存解析后的块，
+     * 之后的访问不再重复计算校验和；否则先查块缓存，
+     * 未命中时通过定位读取从文件加载。
+     *
+     * @param fillCache 是否把读到的块放入缓存
      */
-    private void writeMetadata(FileChannel channel) throws IOException {
-        // 写入SSTable的元数据信息
+    private Block readBlock(int blockNumber, boolean fillCache) throws IOException {
+        BlockIndex.Entry entry = blockIndex.get(blockNumber);
+        if (mappedBlocks != null) {
+            Block block = mappedBlocks.get(blockNumber);
+            if (block == null) {
+                // 并发的第一次访问可能各自校验一次，得到的块等价，保留任意一个即可
+                block = new Block(mappedData.slice((int) entry.getOffset(), entry.getSize()));
+                mappedBlocks.set(blockNumber, block);
+            }
+            return block;
+        }
+
+        if (blockCache != null) {
+            Block cached = blockCache.get(tableId, entry.getOffset());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Block block = new Block(ByteBuffer.wrap(readFully(entry.getOffset(), entry.getSize())));
+        if (blockCache != null && fillCache) {
+            blockCache.put(tableId, entry.getOffset(), block);
+        }
+        return block;
     }
 
     /**
-     * 计算文件大小
+     * 加载布隆过滤器
      */
-    private long calculateFileSize() {
-        return blocks.stream().mapToLong(Block::getSize).sum();
+    private BloomFilter loadBloomFilter(Footer footer) throws IOException {
+        BinaryDecoder.BloomFilterData data =
+                decoder.decodeBloomFilter(readFully(footer.bloomOffset, footer.bloomSize));
+        return new BloomFilter(data.getBitSetSize(), data.getNumHashFunctions(), data.getBitArray());
     }
 
+    /**
+     * 读取并校验Footer
+     */
+    private Footer readFooter() throws IOException {
+        if (fileSize < FOOTER_SIZE) {
+            throw new IOException("File too small to be an SSTable: " + fileSize + " bytes");
+        }
+
+        Footer footer = Footer.decode(ByteBuffer.wrap(readFully(fileSize - FOOTER_SIZE, FOOTER_SIZE)));
+        long sectionsEnd = footer.propertiesOffset + footer.propertiesSize;
+        if (sectionsEnd != fileSize - FOOTER_SIZE) {
+            throw new IOException("Corrupted SSTable footer: sections end at " + sectionsEnd
+                    + " but footer starts at " + (fileSize - FOOTER_SIZE));
+        }
+        return footer;
+    }
 
     /**
-     * 计算最小键
+     * 把整个文件映射到内存
+     *
+     * 单个MappedByteBuffer最多映射2GB，更大的文件退回定位读取。
+     * 映射区域在缓冲区被回收时才解除，关闭后仍持有数据块的读者不会访问到无效内存。
      */
-    private long calculateMinKey() {
-        return blocks.isEmpty() ? 0 :
-                blocks.get(0).getMinKey().hashCode();
+    private MappedByteBuffer mapFile() throws IOException {
+        if (fileSize > Integer.MAX_VALUE) {
+            logger.warn("SSTable {} is too large to map ({} bytes), falling back to pread",
+                    filePath, fileSize);
+            return null;
+        }
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
     }
 
     /**
-     * 计算最大键
+     * 从指定位置读取固定长度的数据
      */
-    private long calculateMaxKey() {
-        return blocks.isEmpty() ? 0 :
-                blocks.get(blocks.size() - 1).getMaxKey().hashCode();
+    private byte[] readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int bytesRead = fileChannel.read(buffer, position + buffer.position());
+            if (bytesRead < 0) {
+                throw new EOFException("Unexpected end of SSTable at position "
+                        + (position + buffer.position()));
+            }
+        }
+        return buffer.array();
     }
 
     /**
@@ -233,4 +628,50 @@ public class SSTable {
             fileChannel.close();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 文件尾部，记录各个元数据段的位置
+     */
+    static class Footer {
+        long indexOffset;
+        int indexSize;
+        long bloomOffset;
+        int bloomSize;
+        long propertiesOffset;
+        int propertiesSize;
+        int version = FORMAT_VERSION;
+
+        byte[] encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(FOOTER_SIZE);
+            buffer.putLong(indexOffset);
+            buffer.putInt(indexSize);
+            buffer.putLong(bloomOffset);
+            buffer.putInt(bloomSize);
+            buffer.putLong(propertiesOffset);
+            buffer.putInt(propertiesSize);
+            buffer.putInt(version);
+            buffer.putLong(MAGIC_NUMBER);
+            return buffer.array();
+        }
+
+        static Footer decode(ByteBuffer buffer) throws IOException {
+            Footer footer = new Footer();
+            footer.indexOffset = buffer.getLong();
+            footer.indexSize = buffer.getInt();
+            footer.bloomOffset = buffer.getLong();
+            footer.bloomSize = buffer.getInt();
+            footer.propertiesOffset = buffer.getLong();
+            footer.propertiesSize = buffer.getInt();
+
+            footer.version = buffer.getInt();
+            long magic = buffer.getLong();
+            if (magic != MAGIC_NUMBER) {
+                throw new IOException("Not an SSTable file: bad magic number");
+            }
+            if (footer.version < MIN_FORMAT_VERSION || footer.version > FORMAT_VERSION) {
+                throw new IOException("Unsupported SSTable format version: " + footer.version);
+            }
+            return footer;
+        }
+    }
+}
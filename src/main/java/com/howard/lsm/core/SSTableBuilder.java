@@ -0,0 +1,219 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.cache.BlockCache;
+import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.serialization.BinaryEncoder;
+import com.howard.lsm.serialization.BinaryEncoder.BlockIndex;
+import com.howard.lsm.serialization.BinaryEncoder.TableProperties;
+import com.howard.lsm.storage.BlockBuilder;
+import com.howard.lsm.storage.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SSTable构建器
+ *
+ * 以流式方式生成SSTable文件：内部键按序添加，每写满一个数据块就立即
+ * 写入文件并记录索引，内存中始终只有一个正在构建的块。全部数据添加完后
+ * 依次写入范围删除块、索引块、布隆过滤器、属性块和Footer，文件格式见{@link SSTable}。
+ *
+ * 表的键范围包含范围删除覆盖的区间，这样查找和压缩在选择文件时不会漏掉它们。
+ *
+ * 刷新内存表和压缩输出都通过它来生成文件。
+ */
+public class SSTableBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(SSTableBuilder.class);
+
+    private final Path filePath;
+    private final int level;
+    private final LSMConfig config;
+    private final BlockCache blockCache;
+    private final FileChannel channel;
+    private final BlockBuilder blockBuilder;
+    private final BinaryEncoder encoder;
+    private final BlockIndex index;
+
+    // 布隆过滤器需要知道键的总数，文件完成时再统一构建；在此之前只保存每个键的64位哈希，
+    // 每个键占8字节，不持有键本身。同一个键的多个版本只记录一次
+    private long[] keyHashes;
+    private int keyCount;
+    private final List<RangeTombstone> rangeTombstones;
+    private String smallestKey;
+    private String largestKey;
+    private long largestSequence;
+    private long entryCount;
+    private long offset;
+
+    /**
+     * @param blockCache 完成后打开的SSTable使用的块缓存，可以为null
+     */
+    public SSTableBuilder(Path filePath, int level, LSMConfig config, BlockCache blockCache) throws IOException {
+        this.filePath = filePath;
+        this.level = level;
+        this.config = config;
+        this.blockCache = blockCache;
+        this.channel = FileChannel.open(filePath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.blockBuilder = new BlockBuilder(config.getBlockSize());
+        this.encoder = new BinaryEncoder();
+        this.index = new BlockIndex();
+        this.keyHashes = new long[64];
+        this.rangeTombstones = new ArrayList<>();
+        this.offset = 0;
+    }
+
+    /**
+     * 添加一个条目，内部键必须严格递增
+     */
+    public void add(InternalKey key, byte[] value) throws IOException {
+        blockBuilder.add(key, value);
+        entryCount++;
+        largestSequence = Math.max(largestSequence, key.getSequence());
+
+        String userKey = key.getUserKey();
+        if (!userKey.equals(largestKey)) {
+            if (keyCount == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, keyCount * 2);
+            }
+            keyHashes[keyCount++] = BloomFilter.hash64(userKey);
+        }
+        if (smallestKey == null) {
+            smallestKey = userKey;
+        }
+        largestKey = userKey;
+
+        if (blockBuilder.isFull()) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * 添加一个范围删除，可以在任意时刻添加，不要求有序
+     */
+    public void addRangeTombstone(RangeTombstone tombstone) {
+        rangeTombstones.add(tombstone);
+        largestSequence = Math.max(largestSequence, tombstone.getSequence());
+    }
+
+    /**
+     * 当前文件的预计大小（已写入的数据块加上正在构建的块）
+     */
+    public long getFileSize() {
+        return offset + (blockBuilder.isEmpty() ? 0 : blockBuilder.currentSize());
+    }
+
+    /**
+     * 已添加的条目数量，不包括范围删除
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 完成文件并以只读方式重新打开
+     */
+    public SSTable finish() throws IOException {
+        try {
+            flushBlock();
+
+            SSTable.Footer footer = new SSTable.Footer();
+
+            // 写入范围删除块，并把覆盖的区间计入表的键范围
+            long rangeDeletionOffset = offset;
+            int rangeDeletionSize = 0;
+            if (!rangeTombstones.isEmpty()) {
+                rangeDeletionSize = writeSection(encoder.encodeRangeTombstones(rangeTombstones));
+                for (RangeTombstone tombstone : rangeTombstones) {
+                    if (smallestKey == null || tombstone.getStartKey().compareTo(smallestKey) < 0) {
+                        smallestKey = tombstone.getStartKey();
+                    }
+                    if (largestKey == null || tombstone.getEndKey().compareTo(largestKey) > 0) {
+                        largestKey = tombstone.getEndKey();
+                    }
+                }
+            }
+
+            // 写入索引块
+            footer.indexOffset = offset;
+            footer.indexSize = writeSection(encoder.encodeBlockIndex(index));
+
+            // 写入布隆过滤器
+            BloomFilter bloomFilter = new BloomFilter(keyCount, config.getBloomFilterFPP());
+            for (int i = 0; i < keyCount; i++) {
+                bloomFilter.addHash(keyHashes[i]);
+            }
+            footer.bloomOffset = offset;
+            footer.bloomSize = writeSection(encoder.encodeBloomFilter(bloomFilter));
+
+            // 写入属性块
+            TableProperties properties = new TableProperties(entryCount,
+                    smallestKey == null ? "" : smallestKey,
+                    largestKey == null ? "" : largestKey,
+                    largestSequence, rangeDeletionOffset, rangeDeletionSize);
+            footer.propertiesOffset = offset;
+            footer.propertiesSize = writeSection(encoder.encodeTableProperties(properties));
+
+            // 写入Footer
+            writeSection(footer.encode());
+
+            // 文件写完后再返回，保证后续截断WAL时数据已经落盘
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+
+        logger.debug("Finished SSTable {}: {} entries, {} range deletions, {} bytes",
+                filePath, entryCount, rangeTombstones.size(), offset);
+        return new SSTable(filePath, level, blockCache, config.getReadMode(level));
+    }
+
+    /**
+     * 放弃构建，删除未完成的文件
+     */
+    public void abandon() {
+        try {
+            channel.close();
+            Files.deleteIfExists(filePath);
+        } catch (IOException e) {
+            logger.warn("Failed to remove abandoned SSTable: {}", filePath, e);
+        }
+    }
+
+    /**
+     * 将当前块写入文件并记录索引条目
+     */
+    private void flushBlock() throws IOException {
+        if (blockBuilder.isEmpty()) {
+            return;
+        }
+
+        String blockLastKey = blockBuilder.getLastKey().getUserKey();
+        long blockOffset = offset;
+        int blockSize = writeSection(blockBuilder.finish());
+        index.addEntry(blockLastKey, blockOffset, blockSize);
+    }
+
+    /**
+     * 写入一段数据，返回写入的字节数
+     */
+    private int writeSection(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        offset += data.length;
+        return data.length;
+    }
+}
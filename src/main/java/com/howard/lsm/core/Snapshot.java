@@ -0,0 +1,46 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+/**
+ * 快照
+ *
+ * 快照固定了一个序列号，通过快照读取时只能看到序列号不超过它的写入，
+ * 之后的写入、删除和压缩都不影响快照读到的内容。快照存在期间，
+ * 压缩会保留它需要的旧版本，因此用完后必须关闭。
+ */
+public final class Snapshot implements AutoCloseable {
+    private final SnapshotList owner;
+
+    /**
+     * -- GETTER --
+     *  获取快照的序列号
+     */
+    @Getter
+    private final long sequence;
+    private boolean released;
+
+    Snapshot(SnapshotList owner, long sequence) {
+        this.owner = owner;
+        this.sequence = sequence;
+    }
+
+    /**
+     * 释放快照，重复调用没有影响
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        owner.release(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot@" + sequence;
+    }
+}
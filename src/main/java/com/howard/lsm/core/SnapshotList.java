@@ -0,0 +1,56 @@
+package com.howard.lsm.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 活跃快照列表
+ *
+ * 记录每个仍在使用的快照序列号及其引用次数。刷新和压缩开始时取一份
+ * 序列号列表，据此决定哪些旧版本还需要保留。
+ */
+public class SnapshotList {
+    private final TreeMap<Long, Integer> sequences = new TreeMap<>();
+
+    /**
+     * 在指定序列号上创建快照
+     */
+    public synchronized Snapshot create(long sequence) {
+        sequences.merge(sequence, 1, Integer::sum);
+        return new Snapshot(this, sequence);
+    }
+
+    /**
+     * 在读取到的当前序列号上创建快照
+     *
+     * 读取序列号和登记快照在同一个临界区内完成：刷新和压缩取序列号列表时，
+     * 要么看到这个快照，要么快照的序列号是在取列表之后读到的，不小于它们输入中的任何版本。
+     */
+    public synchronized Snapshot create(LongSupplier currentSequence) {
+        return create(currentSequence.getAsLong());
+    }
+
+    synchronized void release(Snapshot snapshot) {
+        sequences.computeIfPresent(snapshot.getSequence(), (seq, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * 获取所有活跃快照的序列号，升序排列且不重复
+     */
+    public synchronized long[] sequences() {
+        long[] result = new long[sequences.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : sequences.entrySet()) {
+            result[i++] = entry.getKey();
+        }
+        return result;
+    }
+
+    /**
+     * 活跃快照的数量
+     */
+    public synchronized int size() {
+        return sequences.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
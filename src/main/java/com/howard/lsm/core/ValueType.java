@@ -0,0 +1,31 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+/**
+ * 内部键的类型
+ *
+ * 与序列号一起编码在内部键的最后一个字节中，区分普通的写入和删除（墓碑）。
+ */
+@Getter
+public enum ValueType {
+    DELETE((byte) 0),
+    VALUE((byte) 1);
+
+    private final byte code;
+
+    ValueType(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * 根据编码获取类型
+     */
+    public static ValueType fromCode(int code) {
+        return switch (code) {
+            case 0 -> DELETE;
+            case 1 -> VALUE;
+            default -> throw new IllegalArgumentException("Unknown value type: " + code);
+        };
+    }
+}
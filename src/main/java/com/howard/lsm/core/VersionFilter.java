@@ -0,0 +1,113 @@
+package com.howard.lsm.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 版本过滤
+ *
+ * 刷新和压缩时按内部键的顺序输入条目，决定哪些版本需要写入新文件。
+ *
+ * 活跃快照把序列号划分为若干区间：序列号落在(上一个快照, 快照]区间内的版本，
+ * 只有该快照及更新的读者能看到；最新的区间对应不使用快照的读者。同一个键在
+ * 每个区间内只有最新的版本可见，其余版本被遮盖，可以丢弃。
+ *
+ * 删除标记先暂存：如果这个键还有更旧的版本因快照而保留，墓碑必须一起写出，
+ * 否则较新的读者会看到被删除的旧值。没有保留的旧版本时，更旧的数据可能还在
+ * 下面的层级中，墓碑同样要写出，遮盖那些数据；只有输出到最底层（下面没有任何
+ * 与之重叠的数据）时才能丢弃。
+ *
+ * 被范围删除遮盖的版本同样可以丢弃，前提是两者位于同一个快照区间：中间没有快照，
+ * 任何能看到这个版本的读者也能看到范围删除。范围删除本身由调用方单独写出。
+ */
+class VersionFilter {
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    /**
+     * 接收保留下来的条目
+     */
+    interface Sink {
+        void add(InternalKey key, byte[] value) throws IOException;
+    }
+
+    private final long[] snapshots;
+    private final boolean bottommost;
+    private final RangeTombstoneSet rangeTombstones;
+    private final Sink sink;
+
+    private String currentUserKey;
+    private long currentBucket;
+    private InternalKey pendingTombstone;
+
+    /**
+     * @param snapshots 活跃快照的序列号，升序排列
+     * @param bottommost 输出是否位于最底层，是则丢弃没有保留旧版本的墓碑
+     * @param rangeTombstones 输入中的范围删除
+     */
+    VersionFilter(long[] snapshots, boolean bottommost, RangeTombstoneSet rangeTombstones, Sink sink) {
+        this.snapshots = snapshots;
+        this.bottommost = bottommost;
+        this.rangeTombstones = rangeTombstones;
+        this.sink = sink;
+    }
+
+    /**
+     * 输入一个条目，条目必须按内部键的顺序输入
+     */
+    void add(InternalKey key, byte[] value) throws IOException {
+        long bucket = bucketOf(key.getSequence());
+        if (key.getUserKey().equals(currentUserKey)) {
+            if (bucket == currentBucket) {
+                return; // 被同一区间内更新的版本遮盖
+            }
+        } else {
+            flushPendingTombstone();
+            currentUserKey = key.getUserKey();
+        }
+        currentBucket = bucket;
+
+        if (rangeTombstones.isDeleted(key.getUserKey(), key.getSequence(), bucket)) {
+            return; // 被同一区间内的范围删除遮盖
+        }
+
+        if (key.isDeletion()) {
+            // 连续的墓碑只需要保留最旧的一个，它对更新的读者同样表示删除
+            pendingTombstone = key;
+            return;
+        }
+
+        if (pendingTombstone != null) {
+            sink.add(pendingTombstone, EMPTY_VALUE);
+            pendingTombstone = null;
+        }
+        sink.add(key, value);
+    }
+
+    /**
+     * 输入结束，写出最后一个键暂存的墓碑
+     */
+    void finish() throws IOException {
+        flushPendingTombstone();
+    }
+
+    /**
+     * 上一个键的墓碑之后没有保留的旧版本：不在最底层时写出，否则丢弃
+     */
+    private void flushPendingTombstone() throws IOException {
+        if (pendingTombstone != null && !bottommost) {
+            sink.add(pendingTombstone, EMPTY_VALUE);
+        }
+        pendingTombstone = null;
+    }
+
+    /**
+     * 序列号所属的快照区间，用区间上界（快照序列号）表示，最新的区间为Long.MAX_VALUE
+     */
+    private long bucketOf(long sequence) {
+        int index = Arrays.binarySearch(snapshots, sequence);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < snapshots.length ? snapshots[index] : Long.MAX_VALUE;
+    }
+}
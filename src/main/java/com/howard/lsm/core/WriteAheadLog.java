@@ -3,6 +3,7 @@ package com.howard.lsm.core;
 import com.howard.lsm.config.LSMConfig;
 import com.howard.lsm.serialization.BinaryEncoder;
 import com.howard.lsm.serialization.BinaryDecoder;
+import com.howard.lsm.utils.ChecksumType;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,10 +11,26 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * 写前日志实现
@@ -22,19 +39,50 @@ import java.util.concurrent.locks.ReentrantLock;
  * 1. 所有写操作先写入WAL
  * 2. 支持崩溃后恢复
  * 3. 支持日志截断和清理
+ *
+ * 日志按内存表的代分段：每个段是一个编号递增的文件（wal_000001.log），
+ * 切换内存表时轮转到新的段，旧内存表的SSTable落盘后才删除它对应的段。
+ * 这样后台刷新期间的新写入不会因为截断而丢失，恢复时也只需重放尚未刷新的段。
+ *
+ * 写入采用组提交（group commit）：并发的写入者先进入等待队列，队首的写入者
+ * 成为leader，把队列中已有的所有记录用一次聚集写（gathering write）写入文件，
+ * 需要同步时只调用一次force，然后同时唤醒整批写入者。其余写入者作为follower
+ * 等待leader完成。持久化模式下的吞吐量因此不再受限于每秒fsync的次数。
+ *
+ * 异步写入由专用的写线程处理：appendAsync只把编码好的记录放入无锁队列并立即返回，
+ * 写线程批量取出记录，作为普通写入者参与组提交，同步到磁盘后完成对应的Future。
  */
-public class WriteAheadLog implements AutoCloseable {
+public final class WriteAheadLog implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
     private static final int HEADER_SIZE = 8; // CRC(4) + Length(4)
     private static final int MAX_ENTRY_SIZE = 10 * 1024 * 1024; // 10MB，防止读取过大的条目
+    private static final int MAX_BATCH_BYTES = 1024 * 1024; // 单次组提交最多写入的字节数
+    private static final int INITIAL_ENCODE_BUFFER_SIZE = 16 * 1024; // 编码缓冲区的初始大小
+    private static final int MAX_ENCODE_BUFFER_SIZE = 2 * MAX_BATCH_BYTES; // 超过这个大小的记录不复用缓冲区
+    private static final long MAX_RECOVERY_WINDOW = 1L << 30; // 恢复时每次映射的最大长度
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("wal_(\\d+)\\.log");
+    private static final String LEGACY_WAL_FILE = "wal.log"; // 分段之前的单文件WAL，按第0段处理
 
     private final LSMConfig config;
-    private final Path walPath;
-    private final FileChannel channel;
-    private final ByteBuffer buffer;
+    private final Path walDirectory;
+    // 当前段，受channelLock保护
+    private Path walPath;
+    private FileChannel channel;
+    private long currentSegment;
+    // 保护等待队列，只在入队和交接时短暂持有
     private final ReentrantLock writeLock;
+    private final ArrayDeque<PendingWrite> writers;
+    // 保护文件通道，leader写入、截断和关闭时持有
+    private final ReentrantLock channelLock;
+
+    // 异步写入队列和专用写线程
+    private final ConcurrentLinkedQueue<AsyncRecord> asyncQueue;
+    private final AtomicLong asyncPending;
+    private final Thread asyncWriter;
+    private volatile boolean asyncWriterRunning = true;
     private final BinaryEncoder encoder;
     private final BinaryDecoder decoder;
+    private final ThreadLocal<EncodeBuffer> encodeBuffers = ThreadLocal.withInitial(EncodeBuffer::new);
 
     @Getter
     private long lastFlushedSequence = 0;
@@ -42,144 +90,419 @@ public class WriteAheadLog implements AutoCloseable {
 
     public WriteAheadLog(LSMConfig config) throws IOException {
         this.config = config;
-        this.walPath = Paths.get(config.getWalDirectory(), "wal.log");
-        this.channel = FileChannel.open(walPath,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND);
-        this.buffer = ByteBuffer.allocate(8192);
+        this.walDirectory = Paths.get(config.getWalDirectory());
+
+        // 新的写入总是进入一个新段，已有的段留给恢复过程
+        TreeMap<Long, Path> existing = listSegments();
+        this.currentSegment = existing.isEmpty() ? 1 : existing.lastKey() + 1;
+        this.walPath = segmentPath(currentSegment);
+        this.channel = openSegment(walPath);
         this.writeLock = new ReentrantLock();
+        this.writers = new ArrayDeque<>();
+        this.channelLock = new ReentrantLock();
+        this.asyncQueue = new ConcurrentLinkedQueue<>();
+        this.asyncPending = new AtomicLong(0);
         this.encoder = new BinaryEncoder();
         this.decoder = new BinaryDecoder();
 
+        this.asyncWriter = new Thread(this::runAsyncWriter, "LSM-WAL-Writer");
+        asyncWriter.setDaemon(true);
+        asyncWriter.start();
+
         logger.info("WAL initialized at: {}", walPath);
     }
 
     /**
      * 写入日志条目
+     *
+     * 记录在调用线程中编码到线程私有的缓冲区，然后加入组提交队列；方法返回时
+     * 记录已经写入文件，配置了walSyncImmediate时已经同步到磁盘。组提交中的
+     * 等待不会被中断，返回之前leader不再读取这个缓冲区，下次写入可以直接复用。
+     *
+     * @param sequence 这次写入分配的全局序列号
      */
-    public void append(String key, byte[] value) throws IOException {
+    public void append(long sequence, String key, byte[] value) throws IOException {
         if (closed) {
             throw new IllegalStateException("WAL is closed");
         }
 
-        writeLock.lock();
-        try {
-            // 编码日志条目
-            byte[] entry = encoder.encodeLogEntry(key, value, System.currentTimeMillis());
-
-            // 准备写入缓冲区
-            buffer.clear();
-            buffer.putInt(calculateCRC(entry));
-            buffer.putInt(entry.length);
-            buffer.put(entry);
-            buffer.flip();
+        int size = recordSize(key, value);
+        EncodeBuffer buffer = encodeBuffers.get();
+        ByteBuffer record = buffer.prepare(size);
+        encodeRecord(key, value, sequence, System.currentTimeMillis(), record);
+        record.flip();
+        buffer.records[0] = record;
+        commit(new PendingWrite(buffer.records, record.remaining(), false,
+                writeLock.newCondition()));
+
+        logger.debug("WAL entry written: key={}, valueLength={}",
+                key, value != null ? value.length : 0);
+    }
 
-            // 写入文件
-            channel.write(buffer);
+    /**
+     * 同步写入一个批次
+     *
+     * 整个批次编码为一条记录，只有一个校验和，恢复时要么完整重放，要么整体丢弃。
+     * 第i个操作使用序列号firstSequence + i。
+     */
+    public void appendBatch(long firstSequence, WriteBatch batch) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("WAL is closed");
+        }
 
-            // 根据配置决定是否立即同步
-            if (config.isWalSyncImmediate()) {
-                channel.force(true);
-            }
+        int size = recordSize(batch);
+        EncodeBuffer buffer = encodeBuffers.get();
+        ByteBuffer record = buffer.prepare(size);
+        encodeBatchRecord(batch, firstSequence, System.currentTimeMillis(), record);
+        record.flip();
+        buffer.records[0] = record;
+        commit(new PendingWrite(buffer.records, record.remaining(), false,
+                writeLock.newCondition()));
 
-            logger.debug("WAL entry written: key={}, valueLength={}",
-                    key, value != null ? value.length : 0);
+        logger.debug("WAL batch written: {} entries", batch.size());
+    }
 
-        } finally {
-            writeLock.unlock();
+    /**
+     * 异步写入一个批次，与appendAsync相同，返回的Future在记录同步到磁盘后完成
+     */
+    public CompletableFuture<Void> appendBatchAsync(long firstSequence, WriteBatch batch) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("WAL is closed");
         }
+
+        AsyncRecord record = new AsyncRecord(firstSequence, batch, recordSize(batch),
+                System.currentTimeMillis());
+        asyncPending.incrementAndGet();
+        asyncQueue.offer(record);
+        LockSupport.unpark(asyncWriter);
+        return record.future;
     }
 
     /**
-     * 增强的WAL恢复机制
+     * 计算一条普通记录的长度（含头部）
      *
-     * 这个方法现在能够处理各种错误情况：
-     * 1. 文件损坏 - 跳过损坏的条目，继续处理后续数据
-     * 2. 不完整的条目 - 检测并停止在不完整的数据处
-     * 3. 格式错误 - 验证数据格式，忽略无效条目
+     * 条目超过恢复时允许的最大长度时抛出IllegalArgumentException：这样的记录
+     * 写入后恢复会在它这里停止，它和之后的所有记录都会丢失，必须在确认写入之前拒绝。
      */
-    public void recover(MemTable memTable) throws IOException {
-        if (!walPath.toFile().exists()) {
-            logger.info("WAL file does not exist, skipping recovery");
-            return;
+    public static int recordSize(String key, byte[] value) {
+        return checkEntrySize(BinaryEncoder.logEntrySize(key, value), "Entry");
+    }
+
+    /**
+     * 计算一条批次记录的长度（含头部），限制与普通记录相同
+     */
+    public static int recordSize(WriteBatch batch) {
+        return checkEntrySize(BinaryEncoder.batchEntrySize(batch), "Write batch");
+    }
+
+    private static int checkEntrySize(int entrySize, String what) {
+        if (entrySize > MAX_ENTRY_SIZE) {
+            throw new IllegalArgumentException(what + " too large: " + entrySize
+                    + " bytes, limit is " + MAX_ENTRY_SIZE);
         }
+        return HEADER_SIZE + entrySize;
+    }
 
-        long fileSize = walPath.toFile().length();
-        if (fileSize == 0) {
-            logger.info("WAL file is empty, skipping recovery");
-            return;
+    /**
+     * 异步写入日志条目
+     *
+     * 记录放入无锁队列后立即返回，由写线程统一编码。同一线程先后提交的记录
+     * 按提交顺序写入文件。返回的Future在记录同步到磁盘后完成（不论walSyncImmediate
+     * 如何配置），写入失败时异常完成。Future在WAL写线程上完成，耗时的后续操作
+     * 应使用thenApplyAsync等异步方法。
+     */
+    public CompletableFuture<Void> appendAsync(long sequence, String key, byte[] value) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("WAL is closed");
         }
 
-        logger.info("Starting WAL recovery from file: {} (size: {} bytes)", walPath, fileSize);
+        AsyncRecord record = new AsyncRecord(sequence, key, value, recordSize(key, value),
+                System.currentTimeMillis());
+        asyncPending.incrementAndGet();
+        asyncQueue.offer(record);
+        LockSupport.unpark(asyncWriter);
+        return record.future;
+    }
 
-        int recoveredEntries = 0;
-        int corruptedEntries = 0;
+    /**
+     * 是否有已提交但尚未写入文件的异步记录
+     *
+     * 同步写入在有未完成的异步记录时应改走异步队列，否则可能越过之前提交的
+     * 同一个键的异步记录，使WAL中的顺序与内存表不一致。
+     */
+    public boolean hasPendingAsyncWrites() {
+        return asyncPending.get() > 0;
+    }
 
-        try (FileChannel readChannel = FileChannel.open(walPath, StandardOpenOption.READ)) {
-            ByteBuffer readBuffer = ByteBuffer.allocate(8192);
-            long position = 0;
+    /**
+     * 异步写线程：批量取出队列中的记录，编码到写线程自己的缓冲区，通过组提交写入并同步
+     */
+    private void runAsyncWriter() {
+        List<AsyncRecord> batch = new ArrayList<>();
+        EncodeBuffer buffer = new EncodeBuffer();
+        while (true) {
+            int batchBytes = 0;
+            AsyncRecord next;
+            while (batchBytes < MAX_BATCH_BYTES && (next = asyncQueue.poll()) != null) {
+                batch.add(next);
+                batchBytes += next.size;
+            }
 
-            while (position < fileSize) {
-                // 尝试读取条目头部
-                EntryHeader header = readEntryHeader(readChannel, readBuffer, position);
-                if (header == null) {
-                    // 文件结束或遇到不完整的头部
-                    logger.warn("Reached end of valid data at position: {}", position);
-                    break;
+            if (batch.isEmpty()) {
+                if (!asyncWriterRunning && asyncQueue.isEmpty()) {
+                    return;
                 }
+                LockSupport.park(this);
+                continue;
+            }
 
-                // 验证条目长度的合理性
-                if (header.length <= 0 || header.length > MAX_ENTRY_SIZE) {
-                    logger.warn("Invalid entry length: {} at position: {}, stopping recovery",
-                            header.length, position);
-                    break;
+            // 编码或写入抛出任何异常都不能让写线程退出，否则队列中的Future永远不会完成，
+            // 之后的同步写入也会一直绕到这个不再消费的队列
+            Throwable error = null;
+            try {
+                // 整批记录连续编码，只需要一个缓冲区
+                ByteBuffer records = buffer.prepare(batchBytes);
+                for (AsyncRecord record : batch) {
+                    if (record.batch != null) {
+                        encodeBatchRecord(record.batch, record.sequence, record.timestamp, records);
+                    } else {
+                        encodeRecord(record.key, record.value, record.sequence, record.timestamp, records);
+                    }
                 }
+                records.flip();
+                buffer.records[0] = records;
+
+                commit(new PendingWrite(buffer.records, batchBytes, true, writeLock.newCondition()));
+            } catch (Throwable t) {
+                logger.error("Asynchronous WAL write failed", t);
+                error = t;
+            } finally {
+                asyncPending.addAndGet(-batch.size());
+            }
 
-                // 检查是否有足够的数据来读取完整的条目
-                if (position + HEADER_SIZE + header.length > fileSize) {
-                    logger.warn("Incomplete entry at position: {}, expected {} bytes but only {} available",
-                            position, HEADER_SIZE + header.length, fileSize - position);
-                    break;
+            for (AsyncRecord record : batch) {
+                if (error == null) {
+                    record.future.complete(null);
+                } else {
+                    record.future.completeExceptionally(error);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 在缓冲区当前位置编码一条带头部的日志记录：[CRC][长度][条目]
+     *
+     * 先跳过头部编码条目，再在缓冲区上计算条目的CRC32C并回填头部。
+     */
+    private void encodeRecord(String key, byte[] value, long sequence, long timestamp, ByteBuffer out) {
+        int start = out.position();
+        out.position(start + HEADER_SIZE);
+        encoder.encodeLogEntry(key, value, sequence, timestamp, out);
+        finishRecord(start, out);
+    }
+
+    /**
+     * 在缓冲区当前位置编码一条批次记录，格式与普通记录相同，条目为批次条目
+     */
+    private void encodeBatchRecord(WriteBatch batch, long firstSequence, long timestamp, ByteBuffer out) {
+        int start = out.position();
+        out.position(start + HEADER_SIZE);
+        encoder.encodeBatchEntry(batch, firstSequence, timestamp, out);
+        finishRecord(start, out);
+    }
+
+    /**
+     * 回填记录头部的CRC和长度
+     */
+    private static void finishRecord(int start, ByteBuffer out) {
+        int end = out.position();
+        out.putInt(start, ChecksumType.CRC32C.compute(out, start + HEADER_SIZE, end));
+        out.putInt(start + 4, end - start - HEADER_SIZE);
+    }
+
+    /**
+     * 组提交
+     *
+     * 写入者入队后等待，直到自己的记录被某个leader写完，或者自己成为队首。
+     * 成为队首的写入者作为leader收集整批记录，在释放队列锁之后执行I/O，
+     * 这样新的写入者可以在I/O期间继续入队，组成下一批。
+     */
+    private void commit(PendingWrite write) throws IOException {
+        writeLock.lock();
+        try {
+            writers.addLast(write);
+            while (!write.done && writers.peekFirst() != write) {
+                write.condition.awaitUninterruptibly();
+            }
+            if (write.done) {
+                if (write.error != null) {
+                    throw new IOException("WAL group commit failed", write.error);
                 }
+                return;
+            }
 
-                // 读取条目数据
-                byte[] entryData = readEntryData(readChannel, readBuffer, header.length);
-                if (entryData == null) {
-                    logger.warn("Failed to read entry data at position: {}", position);
+            // 成为leader：从队首开始收集一批记录
+            int batchSize = 0;
+            long batchBytes = 0;
+            boolean sync = config.isWalSyncImmediate();
+            List<ByteBuffer> records = new ArrayList<>();
+            for (PendingWrite pending : writers) {
+                if (batchSize > 0 && batchBytes + pending.bytes > MAX_BATCH_BYTES) {
                     break;
                 }
+                records.addAll(List.of(pending.records));
+                batchBytes += pending.bytes;
+                sync |= pending.sync;
+                batchSize++;
+            }
 
-                // 验证校验和
-                int actualCRC = calculateCRC(entryData);
-                if (actualCRC != header.crc) {
-                    logger.warn("CRC mismatch at position: {}, expected: {}, actual: {}, skipping entry",
-                            position, header.crc, actualCRC);
-                    corruptedEntries++;
-                    position += HEADER_SIZE + header.length;
-                    continue;
+            // 执行I/O时不持有队列锁
+            writeLock.unlock();
+            Exception error = null;
+            try {
+                writeRecords(records.toArray(new ByteBuffer[0]), sync);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            } finally {
+                writeLock.lock();
+            }
+
+            // 唤醒整批写入者，并把leader交给下一批的队首
+            for (int j = 0; j < batchSize; j++) {
+                PendingWrite pending = writers.pollFirst();
+                pending.error = error;
+                pending.done = true;
+                if (pending != write) {
+                    pending.condition.signal();
                 }
+            }
+            if (!writers.isEmpty()) {
+                writers.peekFirst().condition.signal();
+            }
 
-                // 解码并恢复条目
-                try {
-                    var logEntry = decoder.decodeLogEntry(entryData);
-                    if (logEntry.getValue() == null) {
-                        memTable.delete(logEntry.getKey());
-                    } else {
-                        memTable.put(logEntry.getKey(), logEntry.getValue());
-                    }
-                    recoveredEntries++;
+            if (error != null) {
+                throw new IOException("WAL group commit failed", error);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-                    logger.debug("Recovered entry: key={}, deleted={}",
-                            logEntry.getKey(), logEntry.isDeleted());
+    /**
+     * 用一次聚集写写入整批记录，需要时同步一次
+     */
+    private void writeRecords(ByteBuffer[] records, boolean sync) throws IOException {
+        channelLock.lock();
+        try {
+            ByteBuffer last = records[records.length - 1];
+            while (last.hasRemaining()) {
+                channel.write(records);
+            }
 
-                } catch (Exception e) {
-                    logger.warn("Failed to decode entry at position: {}, error: {}",
-                            position, e.getMessage());
-                    corruptedEntries++;
+            // 根据配置或异步写入的要求同步
+            if (sync) {
+                channel.force(true);
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * 增强的WAL恢复机制
+     *
+     * 这个方法能够处理各种错误情况：
+     * 1. 文件损坏 - 跳过损坏的条目，继续处理后续数据
+     * 2. 不完整的条目 - 检测并停止在不完整的数据处
+     * 3. 格式错误 - 验证数据格式，忽略无效条目
+     *
+     * 每个段映射到内存后分三步处理：先顺序扫描一遍确定每条记录的边界，
+     * 只读取8字节的头部；再并行地校验CRC并解码记录；最后按文件顺序写入内存表，
+     * 保证同一个键的较新写入覆盖较旧的写入。
+     *
+     * 每条记录以写入时分配的序列号插入内存表。旧格式的记录没有序列号，
+     * 按文件顺序从lastSequence之后依次分配。
+     *
+     * @param lastSequence 恢复前已知的最大序列号（来自SSTable）
+     * @return 恢复后的最大序列号
+     */
+    public long recover(MemTable memTable, long lastSequence) throws IOException {
+        TreeMap<Long, Path> segments = listSegments();
+        segments.tailMap(currentSegment, true).clear();
+        if (segments.isEmpty()) {
+            logger.info("No WAL segments found, skipping recovery");
+            return lastSequence;
+        }
+
+        // 按段编号顺序重放，较新的段覆盖较旧的段
+        for (Path segment : segments.values()) {
+            lastSequence = recoverSegment(segment, memTable, lastSequence);
+        }
+        return lastSequence;
+    }
+
+    /**
+     * 重放一个WAL段
+     *
+     * 超过映射窗口大小的段分多个窗口处理，跨越窗口边界的记录从下一个窗口的起点重新扫描。
+     */
+    private long recoverSegment(Path segment, MemTable memTable, long lastSequence) throws IOException {
+        long fileSize = Files.size(segment);
+        if (fileSize == 0) {
+            logger.info("WAL segment {} is empty, skipping", segment);
+            return lastSequence;
+        }
+
+        logger.info("Starting WAL recovery from file: {} (size: {} bytes)", segment, fileSize);
+        long start = System.nanoTime();
+
+        int recoveredEntries = 0;
+        int corruptedEntries = 0;
+
+        try (FileChannel readChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long base = 0;
+            while (base < fileSize) {
+                long windowSize = Math.min(fileSize - base, MAX_RECOVERY_WINDOW);
+                boolean lastWindow = base + windowSize == fileSize;
+                ByteBuffer window = readChannel.map(FileChannel.MapMode.READ_ONLY, base, windowSize);
+
+                // 第一步：扫描记录边界
+                RecordBoundaries boundaries = scanRecords(window, base, lastWindow);
+
+                // 第二步：并行校验和解码
+                List<List<BinaryDecoder.LogEntry>> records = decodeRecords(window, boundaries);
+
+                // 第三步：按顺序写入内存表，批次记录中的操作一起重放
+                for (int i = 0; i < boundaries.count; i++) {
+                    List<BinaryDecoder.LogEntry> record = records.get(i);
+                    if (record == null) {
+                        corruptedEntries++;
+                        continue;
+                    }
+                    for (BinaryDecoder.LogEntry logEntry : record) {
+                        long sequence = logEntry.getSequenceNumber();
+                        if (sequence == 0) {
+                            sequence = lastSequence + 1;
+                        }
+                        lastSequence = Math.max(lastSequence, sequence);
+
+                        if (logEntry.isRangeDeletion()) {
+                            memTable.deleteRange(logEntry.getKey(), logEntry.getEndKey(), sequence);
+                        } else if (logEntry.isDeleted()) {
+                            memTable.delete(logEntry.getKey(), sequence);
+                        } else {
+                            memTable.put(logEntry.getKey(), sequence, logEntry.getValue());
+                        }
+                        recoveredEntries++;
+                    }
                 }
 
-                position += HEADER_SIZE + header.length;
+                if (boundaries.stopped || boundaries.end == 0) {
+                    break;
+                }
+                base += boundaries.end;
             }
 
         } catch (IOException e) {
@@ -187,72 +510,188 @@ public class WriteAheadLog implements AutoCloseable {
             throw e;
         }
 
-        logger.info("WAL recovery completed: {} entries recovered, {} corrupted entries skipped",
-                recoveredEntries, corruptedEntries);
+        logger.info("WAL recovery completed: {} entries recovered, {} corrupted entries skipped in {} ms",
+                recoveredEntries, corruptedEntries, (System.nanoTime() - start) / 1_000_000);
 
         // 如果有损坏的条目，建议重建WAL
         if (corruptedEntries > 0) {
             logger.warn("Found {} corrupted entries, consider rebuilding WAL", corruptedEntries);
         }
+        return lastSequence;
     }
 
     /**
-     * 读取条目头部
+     * 顺序扫描窗口中的记录边界，只读取每条记录的长度字段
+     *
+     * @param base 窗口在文件中的起始位置，用于日志
+     * @param lastWindow 窗口是否到达文件末尾；否则末尾不完整的记录留给下一个窗口
      */
-    private EntryHeader readEntryHeader(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
-        buffer.clear();
-        buffer.limit(HEADER_SIZE);
+    private RecordBoundaries scanRecords(ByteBuffer window, long base, boolean lastWindow) {
+        RecordBoundaries boundaries = new RecordBoundaries();
+        int limit = window.limit();
+        int position = 0;
+
+        while (position < limit) {
+            if (limit - position < HEADER_SIZE) {
+                if (lastWindow) {
+                    logger.warn("Reached end of valid data at position: {}", base + position);
+                    boundaries.stopped = true;
+                }
+                break;
+            }
 
-        channel.position(position);
-        int bytesRead = channel.read(buffer);
+            // 验证条目长度的合理性
+            int length = window.getInt(position + 4);
+            if (length <= 0 || length > MAX_ENTRY_SIZE) {
+                logger.warn("Invalid entry length: {} at position: {}, stopping recovery",
+                        length, base + position);
+                boundaries.stopped = true;
+                break;
+            }
 
-        if (bytesRead < HEADER_SIZE) {
-            return null; // 文件结束或数据不完整
-        }
+            // 检查是否有足够的数据来读取完整的条目
+            if (position + HEADER_SIZE + length > limit) {
+                if (lastWindow) {
+                    logger.warn("Incomplete entry at position: {}, expected {} bytes but only {} available",
+                            base + position, HEADER_SIZE + length, limit - position);
+                    boundaries.stopped = true;
+                }
+                break;
+            }
 
-        buffer.flip();
-        int crc = buffer.getInt();
-        int length = buffer.getInt();
+            boundaries.add(position);
+            position += HEADER_SIZE + length;
+        }
 
-        return new EntryHeader(crc, length);
+        boundaries.end = position;
+        return boundaries;
     }
 
     /**
-     * 读取条目数据
+     * 并行校验CRC并解码记录，损坏的记录在结果中为null
      */
-    private byte[] readEntryData(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
-        byte[] data = new byte[length];
-        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
-
-        int totalBytesRead = 0;
-        while (totalBytesRead < length) {
-            int bytesRead = channel.read(dataBuffer);
-            if (bytesRead == -1) {
-                return null; // 文件结束
+    private List<List<BinaryDecoder.LogEntry>> decodeRecords(ByteBuffer window, RecordBoundaries boundaries) {
+        // 各线程只写入自己的下标，不改变列表结构
+        List<List<BinaryDecoder.LogEntry>> entries = new ArrayList<>(Collections.nCopies(boundaries.count, null));
+        int[] offsets = boundaries.offsets;
+
+        IntStream.range(0, boundaries.count).parallel().forEach(i -> {
+            int offset = offsets[i];
+            int expectedCRC = window.getInt(offset);
+            int length = window.getInt(offset + 4);
+            ByteBuffer entry = window.slice(offset + HEADER_SIZE, length);
+
+            // 头部CRC的算法由条目的格式版本决定，旧版本的段仍然可以恢复
+            ChecksumType checksumType = BinaryDecoder.checksumType(entry.get(0));
+            int actualCRC = checksumType.compute(entry, 0, length);
+            if (actualCRC != expectedCRC) {
+                logger.warn("CRC mismatch at offset: {}, expected: {}, actual: {}, skipping entry",
+                        offset, expectedCRC, actualCRC);
+                return;
             }
-            totalBytesRead += bytesRead;
-        }
 
-        return data;
+            try {
+                entries.set(i, decoder.decodeLogEntries(entry));
+            } catch (IOException e) {
+                logger.warn("Failed to decode entry at offset: {}, error: {}", offset, e.getMessage());
+            }
+        });
+
+        return entries;
+    }
+
+    /**
+     * 轮转到新的段
+     *
+     * 在切换内存表时调用，调用方保证此时没有进行中的同步写入。之后的写入
+     * 进入新段；异步队列中尚未写入的旧记录也会进入新段，重放时只是多写一次。
+     *
+     * @return 刚结束的段编号，包含旧内存表的全部写入
+     */
+    public long rotate() throws IOException {
+        channelLock.lock();
+        try {
+            long finishedSegment = currentSegment;
+            Path nextPath = segmentPath(finishedSegment + 1);
+            FileChannel next = openSegment(nextPath);
+
+            channel.close();
+            channel = next;
+            walPath = nextPath;
+            currentSegment = finishedSegment + 1;
+
+            logger.info("WAL rotated to segment: {}", walPath);
+            return finishedSegment;
+        } finally {
+            channelLock.unlock();
+        }
     }
 
     /**
      * 标记已刷新的序列号
+     *
+     * 内存表的SSTable已经落盘，它对应的段及更早的段都不再需要，
+     * 如果配置允许就删除这些段。
+     *
+     * @param flushedSegment 已刷新内存表对应的段编号
      */
-    public void markFlushed(long sequenceNumber) throws IOException {
+    public void markFlushed(long sequenceNumber, long flushedSegment) throws IOException {
         this.lastFlushedSequence = sequenceNumber;
 
-        // 如果配置允许，可以截断WAL
-        if (config.isWalTruncateEnabled()) {
-            truncateWAL();
+        if (!config.isWalTruncateEnabled()) {
+            return;
+        }
+
+        channelLock.lock();
+        try {
+            for (Path segment : listSegments().headMap(Math.min(flushedSegment, currentSegment - 1), true).values()) {
+                Files.deleteIfExists(segment);
+                logger.info("Deleted flushed WAL segment: {}", segment);
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * 列出WAL目录中的所有段，按编号排序
+     */
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        if (!Files.isDirectory(walDirectory)) {
+            return segments;
+        }
+
+        try (Stream<Path> files = Files.list(walDirectory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_PATTERN.matcher(name);
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                } else if (name.equals(LEGACY_WAL_FILE)) {
+                    segments.put(0L, file);
+                }
+            });
         }
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return walDirectory.resolve(String.format("wal_%06d.log", segment));
+    }
+
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
     }
 
     /**
      * 安全地截断WAL文件
      */
     private void truncateWAL() throws IOException {
-        writeLock.lock();
+        channelLock.lock();
         try {
             // 强制同步当前数据
             channel.force(true);
@@ -262,50 +701,135 @@ public class WriteAheadLog implements AutoCloseable {
 
             logger.info("WAL truncated");
         } finally {
-            writeLock.unlock();
+            channelLock.unlock();
         }
     }
 
-    /**
-     * 计算CRC32校验码
-     */
-    private int calculateCRC(byte[] data) {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-        crc.update(data);
-        return (int) crc.getValue();
-    }
-
     @Override
     public void close() throws IOException {
         if (closed) {
             return;
         }
+        closed = true;
 
-        writeLock.lock();
+        // 先让异步写线程写完队列中剩余的记录
+        asyncWriterRunning = false;
+        LockSupport.unpark(asyncWriter);
+        try {
+            asyncWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        channelLock.lock();
         try {
-            closed = true;
 
             if (channel.isOpen()) {
                 // 确保所有数据都写入磁盘
                 channel.force(true);
+                boolean empty = channel.size() == 0;
                 channel.close();
+
+                // 没有任何写入的段不需要留给下次恢复
+                if (empty) {
+                    Files.deleteIfExists(walPath);
+                }
                 logger.info("WAL closed successfully");
             }
         } finally {
-            writeLock.unlock();
+            channelLock.unlock();
         }
     }
 
     /**
-     * 条目头部数据结构
+     * 等待组提交的写入
      */
-    private static class EntryHeader {
-        final int crc;
-        final int length;
+    private static class PendingWrite {
+        final ByteBuffer[] records;
+        final long bytes;
+        final boolean sync; // 是否要求同步到磁盘
+        final Condition condition;
+        // 以下字段受writeLock保护
+        boolean done;
+        Exception error;
+
+        PendingWrite(ByteBuffer[] records, long bytes, boolean sync, Condition condition) {
+            this.records = records;
+            this.bytes = bytes;
+            this.sync = sync;
+            this.condition = condition;
+        }
+    }
 
-        EntryHeader(int crc, int length) {
-            this.crc = crc;
-            this.length = length;
+    /**
+     * 等待异步写线程处理的记录
+     */
+    private static class AsyncRecord {
+        final long sequence;    // 批次记录为起始序列号
+        final String key;
+        final byte[] value;
+        final WriteBatch batch; // 不为null时是一条批次记录
+        final int size;         // 编码后的记录长度（含头部），入队前已经检查过上限
+        final long timestamp;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        AsyncRecord(long sequence, String key, byte[] value, int size, long timestamp) {
+            this.sequence = sequence;
+            this.key = key;
+            this.value = value;
+            this.batch = null;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+
+        AsyncRecord(long firstSequence, WriteBatch batch, int size, long timestamp) {
+            this.sequence = firstSequence;
+            this.key = null;
+            this.value = null;
+            this.batch = batch;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * 可复用的编码缓冲区，每个写入线程一个
+     *
+     * 直接缓冲区按需扩容，写入文件时不需要再复制到临时的直接缓冲区。
+     * 超过上限的记录使用一次性的缓冲区，避免单个大值让线程长期占用大块内存。
+     */
+    private static class EncodeBuffer {
+        final ByteBuffer[] records = new ByteBuffer[1];
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_ENCODE_BUFFER_SIZE);
+
+        /**
+         * 返回至少有required字节空间的空缓冲区
+         */
+        ByteBuffer prepare(int required) {
+            if (required > buffer.capacity()) {
+                if (required > MAX_ENCODE_BUFFER_SIZE) {
+                    return ByteBuffer.allocate(required);
+                }
+                buffer = ByteBuffer.allocateDirect(Math.max(required, buffer.capacity() * 2));
+            }
+            return buffer.clear().limit(required);
+        }
+    }
+
+    /**
+     * 一个映射窗口中完整记录的起始偏移
+     */
+    private static class RecordBoundaries {
+        int[] offsets = new int[1024];
+        int count;
+        int end;         // 最后一条完整记录之后的位置
+        boolean stopped; // 遇到无法继续的数据，不再处理后续窗口
+
+        void add(int offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
         }
     }
 
@@ -0,0 +1,139 @@
+package com.howard.lsm.core;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 写批次
+ *
+ * 把多个写入和删除组合在一起原子地应用：批次内的操作按加入顺序分配连续的序列号，
+ * 在同一次加锁中写入内存表，快照要么看到整个批次，要么完全看不到。
+ * 同一个键在批次内出现多次时，后加入的操作生效。
+ */
+public class WriteBatch {
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean hasRangeDeletions;
+
+    /**
+     * -- GETTER --
+     *  获取批次中键和值的总字节数（近似值）
+     */
+    @Getter
+    private long approximateSize;
+
+    /**
+     * 加入一个写入
+     */
+    public WriteBatch put(String key, byte[] value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null, use delete() for deletion");
+        }
+
+        operations.add(new Operation(key, value));
+        approximateSize += key.length() + value.length;
+        return this;
+    }
+
+    /**
+     * 加入一个删除
+     */
+    public WriteBatch delete(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        operations.add(new Operation(key, null));
+        approximateSize += key.length();
+        return this;
+    }
+
+    /**
+     * 加入一个范围删除，删除[startKey, endKey)内的所有键
+     */
+    public WriteBatch deleteRange(String startKey, String endKey) {
+        if (startKey == null || endKey == null) {
+            throw new IllegalArgumentException("Range bounds cannot be null");
+        }
+
+        if (startKey.compareTo(endKey) > 0) {
+            throw new IllegalArgumentException("Start key must not be greater than end key");
+        }
+
+        operations.add(new Operation(startKey, null, endKey));
+        approximateSize += startKey.length() + endKey.length();
+        hasRangeDeletions = true;
+        return this;
+    }
+
+    /**
+     * 获取批次中的操作，按加入顺序排列
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * 操作数量
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * 批次中是否包含范围删除
+     */
+    public boolean hasRangeDeletions() {
+        return hasRangeDeletions;
+    }
+
+    /**
+     * 清空批次以便复用
+     */
+    public void clear() {
+        operations.clear();
+        approximateSize = 0;
+        hasRangeDeletions = false;
+    }
+
+    /**
+     * 批次中的一个操作，值为null表示删除；范围删除的key是起始键，endKey是结束键
+     */
+    @Getter
+    public static final class Operation {
+        private final String key;
+        private final byte[] value;
+        private final String endKey;
+
+        Operation(String key, byte[] value) {
+            this(key, value, null);
+        }
+
+        Operation(String key, byte[] value, String endKey) {
+            this.key = key;
+            this.value = value;
+            this.endKey = endKey;
+        }
+
+        /**
+         * 是否是删除，包括范围删除
+         */
+        public boolean isDeletion() {
+            return value == null;
+        }
+
+        public boolean isRangeDeletion() {
+            return endKey != null;
+        }
+    }
+}
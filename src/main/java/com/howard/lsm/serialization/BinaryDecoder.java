@@ -1,11 +1,21 @@
 package com.howard.lsm.serialization;
 
+import com.howard.lsm.core.RangeTombstone;
+import com.howard.lsm.serialization.BinaryEncoder.BlockIndex;
+import com.howard.lsm.serialization.BinaryEncoder.TableProperties;
+import com.howard.lsm.utils.ChecksumType;
 import lombok.Getter;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * 二进制解码器
@@ -27,12 +37,22 @@ public class BinaryDecoder {
 
     // 版本兼容性映射
     private static final byte SUPPORTED_MIN_VERSION = 1;
-    private static final byte SUPPORTED_MAX_VERSION = 1;
+    private static final byte SUPPORTED_MAX_VERSION = 6;
+    // 从这个版本开始WAL条目记录真实的序列号，表属性记录最大序列号
+    private static final byte SEQUENCE_VERSION = 3;
+    // 从这个版本开始表属性记录范围删除块的位置
+    private static final byte RANGE_DELETION_VERSION = 4;
+    // 从这个版本开始表属性块带有校验和
+    private static final byte PROPERTIES_CHECKSUM_VERSION = 5;
+    // 从这个版本开始块索引和布隆过滤器带有校验和
+    private static final byte SECTION_CHECKSUM_VERSION = 6;
 
     // 数据标记常量
     private static final byte NULL_MARKER = 0x00;
     private static final byte DATA_MARKER = 0x01;
     private static final byte DELETED_MARKER = 0x02;
+    private static final byte BATCH_MARKER = 0x03;
+    private static final byte RANGE_DELETION_MARKER = 0x04;
 
     /**
      * 解码键值对
@@ -84,7 +104,7 @@ public class BinaryDecoder {
 
             // 验证校验和
             int expectedChecksum = dis.readInt();
-            int actualChecksum = calculateChecksum(data, data.length - 4);
+            int actualChecksum = checksumType(version).compute(data, 0, data.length - 4);
 
             if (expectedChecksum != actualChecksum) {
                 throw new IOException("Checksum mismatch - data may be corrupted");
@@ -107,42 +127,132 @@ public class BinaryDecoder {
      * @return 解码后的日志条目
      */
     public LogEntry decodeLogEntry(byte[] data) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
-             DataInputStream dis = new DataInputStream(bais)) {
+        return decodeLogEntry(ByteBuffer.wrap(data));
+    }
 
+    /**
+     * 直接从ByteBuffer解码WAL日志条目
+     *
+     * 恢复时传入内存映射文件的切片，不需要先复制到字节数组。
+     * 只读取缓冲区的position到limit之间的数据，不修改传入缓冲区的位置。
+     * 这个方法不持有状态，可以被多个线程同时调用。
+     */
+    public LogEntry decodeLogEntry(ByteBuffer data) throws IOException {
+        ByteBuffer buffer = data.slice();
+        try {
             // 读取版本和类型
-            byte version = dis.readByte();
+            byte version = buffer.get();
             validateVersion(version);
 
-            byte marker = dis.readByte();
+            byte marker = buffer.get();
             boolean isDeleted = (marker == DELETED_MARKER);
 
-            // 读取时间戳和序列号
-            long timestamp = dis.readLong();
-            long sequenceNumber = dis.readLong();
+            // 读取时间戳和序列号，旧版本的序列号字段只是时间戳的副本，按0处理
+            long timestamp = buffer.getLong();
+            long sequenceNumber = buffer.getLong();
+            if (version < SEQUENCE_VERSION) {
+                sequenceNumber = 0;
+            }
 
             // 解码键值对
-            int keyLength = dis.readInt();
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining()) {
+                throw new IOException("Invalid key length: " + keyLength);
+            }
             byte[] keyBytes = new byte[keyLength];
-            dis.readFully(keyBytes);
+            buffer.get(keyBytes);
             String key = new String(keyBytes, StandardCharsets.UTF_8);
 
             byte[] value = null;
-            int valueLength = dis.readInt();
-            if (!isDeleted && valueLength > 0) {
+            int valueLength = buffer.getInt();
+            if (!isDeleted) {
+                if (valueLength < 0 || valueLength > buffer.remaining()) {
+                    throw new IOException("Invalid value length: " + valueLength);
+                }
                 value = new byte[valueLength];
-                dis.readFully(value);
+                buffer.get(value);
             }
 
             // 验证校验和
-            int expectedChecksum = dis.readInt();
-            int actualChecksum = calculateChecksum(data, data.length - 4);
+            int expectedChecksum = buffer.getInt();
+            int actualChecksum = checksumType(version).compute(buffer, 0, buffer.position() - 4);
 
             if (expectedChecksum != actualChecksum) {
                 throw new IOException("WAL entry checksum mismatch");
             }
 
             return new LogEntry(key, value, timestamp, sequenceNumber, isDeleted);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated WAL entry", e);
+        }
+    }
+
+    /**
+     * 解码一个WAL条目中的所有日志条目
+     *
+     * 普通条目返回只有一个元素的列表；批次条目按顺序返回其中的每个操作，
+     * 序列号从起始序列号依次递增。批次只有一个校验和，校验失败时整体丢弃。
+     * 与decodeLogEntry相同，不修改传入缓冲区的位置，可以被多个线程同时调用。
+     */
+    public List<LogEntry> decodeLogEntries(ByteBuffer data) throws IOException {
+        if (data.remaining() < 2 || data.get(data.position() + 1) != BATCH_MARKER) {
+            return List.of(decodeLogEntry(data));
+        }
+
+        ByteBuffer buffer = data.slice();
+        try {
+            byte version = buffer.get();
+            validateVersion(version);
+            buffer.get(); // BATCH_MARKER
+
+            long timestamp = buffer.getLong();
+            long firstSequence = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining()) {
+                throw new IOException("Invalid batch size: " + count);
+            }
+
+            List<LogEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte marker = buffer.get();
+                boolean isDeleted = marker == DELETED_MARKER;
+
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > buffer.remaining()) {
+                    throw new IOException("Invalid key length: " + keyLength);
+                }
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(keyBytes);
+
+                int valueLength = buffer.getInt();
+                byte[] value = null;
+                if (!isDeleted) {
+                    if (valueLength < 0 || valueLength > buffer.remaining()) {
+                        throw new IOException("Invalid value length: " + valueLength);
+                    }
+                    value = new byte[valueLength];
+                    buffer.get(value);
+                }
+
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                if (marker == RANGE_DELETION_MARKER) {
+                    // 范围删除的值是结束键
+                    entries.add(new LogEntry(key, null, timestamp, firstSequence + i, true,
+                            new String(value, StandardCharsets.UTF_8)));
+                } else {
+                    entries.add(new LogEntry(key, value, timestamp, firstSequence + i, isDeleted));
+                }
+            }
+
+            int expectedChecksum = buffer.getInt();
+            int actualChecksum = checksumType(version).compute(buffer, 0, buffer.position() - 4);
+            if (expectedChecksum != actualChecksum) {
+                throw new IOException("WAL batch checksum mismatch");
+            }
+
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated WAL batch", e);
         }
     }
 
@@ -151,9 +261,11 @@ public class BinaryDecoder {
      *
      * 块索引的解码需要重建索引数据结构，包括所有的键、偏移量和大小信息。
      * 这个索引将用于快速定位数据块中的特定数据。
+     * 版本6起索引末尾带有校验和，损坏的索引会把读取引向错误的偏移量。
      */
     public BlockIndex decodeBlockIndex(byte[] data) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        int length = verifyChecksum(data, SECTION_CHECKSUM_VERSION, "Block index");
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, length);
              DataInputStream dis = new DataInputStream(bais)) {
 
             byte version = dis.readByte();
@@ -189,9 +301,11 @@ public class BinaryDecoder {
      *
      * 重建布隆过滤器需要恢复其内部状态，包括位数组和哈希函数配置。
      * 解码后的过滤器必须与原始过滤器在功能上完全相同。
+     * 版本6起过滤器末尾带有校验和：翻转的位会让查找跳过实际包含这个键的表。
      */
     public BloomFilterData decodeBloomFilter(byte[] data) throws IOException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        int length = verifyChecksum(data, SECTION_CHECKSUM_VERSION, "Bloom filter");
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, length);
              DataInputStream dis = new DataInputStream(bais)) {
 
             byte version = dis.readByte();
@@ -210,6 +324,150 @@ public class BinaryDecoder {
         }
     }
 
+    /**
+     * 解码表属性
+     *
+     * 版本5起属性块末尾带有校验和，旧版本的属性块没有校验和。
+     */
+    public TableProperties decodeTableProperties(byte[] data) throws IOException {
+        int length = verifyChecksum(data, PROPERTIES_CHECKSUM_VERSION, "Table properties");
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, length);
+             DataInputStream dis = new DataInputStream(bais)) {
+
+            byte version = dis.readByte();
+            validateVersion(version);
+
+            long entryCount = dis.readLong();
+
+            byte[] smallestKey = new byte[dis.readInt()];
+            dis.readFully(smallestKey);
+
+            byte[] largestKey = new byte[dis.readInt()];
+            dis.readFully(largestKey);
+
+            // SSTable格式4起属性块的版本不低于SEQUENCE_VERSION，总是记录最大序列号
+            long largestSequence = dis.readLong();
+
+            long rangeDeletionOffset = 0;
+            int rangeDeletionSize = 0;
+            if (version >= RANGE_DELETION_VERSION) {
+                rangeDeletionOffset = dis.readLong();
+                rangeDeletionSize = dis.readInt();
+            }
+
+            return new TableProperties(entryCount,
+                    new String(smallestKey, StandardCharsets.UTF_8),
+                    new String(largestKey, StandardCharsets.UTF_8),
+                    largestSequence, rangeDeletionOffset, rangeDeletionSize);
+        }
+    }
+
+    /**
+     * 解码范围删除块
+     */
+    public List<RangeTombstone> decodeRangeTombstones(byte[] data) throws IOException {
+        if (data.length < 4) {
+            throw new IOException("Truncated range deletion block");
+        }
+        int expectedChecksum = ByteBuffer.wrap(data, data.length - 4, 4).getInt();
+        if (ChecksumType.CRC32C.compute(data, 0, data.length - 4) != expectedChecksum) {
+            throw new IOException("Range deletion block checksum mismatch");
+        }
+
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, data.length - 4);
+             DataInputStream dis = new DataInputStream(bais)) {
+
+            byte version = dis.readByte();
+            validateVersion(version);
+
+            int count = dis.readInt();
+            if (count < 0 || count > data.length) {
+                throw new IOException("Invalid range deletion count: " + count);
+            }
+
+            List<RangeTombstone> tombstones = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] startKey = new byte[dis.readInt()];
+                dis.readFully(startKey);
+
+                byte[] endKey = new byte[dis.readInt()];
+                dis.readFully(endKey);
+
+                tombstones.add(new RangeTombstone(new String(startKey, StandardCharsets.UTF_8),
+                        new String(endKey, StandardCharsets.UTF_8), dis.readLong()));
+            }
+            return tombstones;
+        }
+    }
+
+    /**
+     * 解码清单
+     *
+     * @return 层级到文件编号列表的映射，按层级排序
+     */
+    public Map<Integer, List<Long>> decodeManifest(byte[] data) throws IOException {
+        if (data.length < 4) {
+            throw new IOException("Truncated manifest");
+        }
+        int expectedChecksum = ByteBuffer.wrap(data, data.length - 4, 4).getInt();
+        if (ChecksumType.CRC32C.compute(data, 0, data.length - 4) != expectedChecksum) {
+            throw new IOException("Manifest checksum mismatch");
+        }
+
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, data.length - 4);
+             DataInputStream dis = new DataInputStream(bais)) {
+
+            byte version = dis.readByte();
+            validateVersion(version);
+
+            int levelCount = dis.readInt();
+            if (levelCount < 0 || levelCount > data.length) {
+                throw new IOException("Invalid manifest level count: " + levelCount);
+            }
+
+            Map<Integer, List<Long>> levels = new TreeMap<>();
+            for (int i = 0; i < levelCount; i++) {
+                int level = dis.readInt();
+                int fileCount = dis.readInt();
+                if (fileCount < 0 || fileCount > data.length) {
+                    throw new IOException("Invalid manifest file count: " + fileCount);
+                }
+
+                List<Long> fileNumbers = new ArrayList<>(fileCount);
+                for (int j = 0; j < fileCount; j++) {
+                    fileNumbers.add(dis.readLong());
+                }
+                levels.put(level, fileNumbers);
+            }
+            return levels;
+        }
+    }
+
+    /**
+     * 校验SSTable元数据段末尾的CRC32C校验和
+     *
+     * 段的第一个字节是格式版本，不低于sinceVersion时末尾4字节是之前所有内容的校验和。
+     *
+     * @return 去掉校验和之后的内容长度
+     */
+    private static int verifyChecksum(byte[] data, byte sinceVersion, String section) throws IOException {
+        if (data.length == 0) {
+            throw new IOException("Empty " + section.toLowerCase() + " block");
+        }
+        int length = data.length;
+        if (data[0] >= sinceVersion) {
+            if (length < 5) {
+                throw new IOException("Truncated " + section.toLowerCase() + " block");
+            }
+            length -= 4;
+            int expectedChecksum = ByteBuffer.wrap(data, length, 4).getInt();
+            if (ChecksumType.CRC32C.compute(data, 0, length) != expectedChecksum) {
+                throw new IOException(section + " checksum mismatch");
+            }
+        }
+        return length;
+    }
+
     /**
      * 验证版本兼容性
      *
@@ -225,15 +483,13 @@ public class BinaryDecoder {
     }
 
     /**
-     * 计算校验和
+     * 获取指定格式版本使用的校验和算法
      *
-     * 这个方法必须与编码器使用完全相同的算法，
-     * 这样才能正确验证数据完整性。
+     * 必须与编码器写入时使用的算法完全相同，才能正确验证数据完整性。
+     * 版本1使用CRC32，之后的版本使用CRC32C。
      */
-    private int calculateChecksum(byte[] data, int length) {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-        crc.update(data, 0, length);
-        return (int) crc.getValue();
+    public static ChecksumType checksumType(byte version) {
+        return version <= 1 ? ChecksumType.CRC32 : ChecksumType.CRC32C;
     }
 
     /**
@@ -263,14 +519,29 @@ public class BinaryDecoder {
         private final long timestamp;
         private final long sequenceNumber;
         private final boolean deleted;
+        // 范围删除的结束键，此时key是起始键；普通条目为null
+        private final String endKey;
 
         public LogEntry(String key, byte[] value, long timestamp,
                         long sequenceNumber, boolean deleted) {
+            this(key, value, timestamp, sequenceNumber, deleted, null);
+        }
+
+        public LogEntry(String key, byte[] value, long timestamp,
+                        long sequenceNumber, boolean deleted, String endKey) {
             this.key = key;
             this.value = value;
             this.timestamp = timestamp;
             this.sequenceNumber = sequenceNumber;
             this.deleted = deleted;
+            this.endKey = endKey;
+        }
+
+        /**
+         * 是否是范围删除
+         */
+        public boolean isRangeDeletion() {
+            return endKey != null;
         }
 
     }
@@ -291,34 +562,4 @@ public class BinaryDecoder {
         }
 
     }
-
-    /**
-     * 块索引数据结构
-     */
-    @Getter
-    public static class BlockIndex {
-        private final java.util.List<Entry> entries;
-
-        public BlockIndex() {
-            this.entries = new java.util.ArrayList<>();
-        }
-
-        public void addEntry(String key, long offset, int size) {
-            entries.add(new Entry(key, offset, size));
-        }
-
-        @Getter
-        public static class Entry {
-            private final String key;
-            private final long offset;
-            private final int size;
-
-            public Entry(String key, long offset, int size) {
-                this.key = key;
-                this.offset = offset;
-                this.size = size;
-            }
-
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,12 +1,19 @@
 package com.howard.lsm.serialization;
 
+import com.howard.lsm.core.RangeTombstone;
+import com.howard.lsm.core.WriteBatch;
 import com.howard.lsm.storage.BloomFilter;
+import com.howard.lsm.utils.ByteUtils;
+import com.howard.lsm.utils.ChecksumType;
 import lombok.Getter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 二进制编码器
@@ -28,13 +35,25 @@ import java.nio.charset.StandardCharsets;
  */
 public class BinaryEncoder {
 
-    // 版本信息，用于格式演进
-    private static final byte FORMAT_VERSION = 1;
+    // 版本信息，用于格式演进。版本1使用CRC32校验，版本2起使用CRC32C；
+    // 版本3起WAL条目记录真实的序列号，表属性记录最大序列号，并支持批次条目；
+    // 版本4起批次可以包含范围删除，表属性记录范围删除块的位置；
+    // 版本5起表属性块末尾带有校验和；版本6起块索引和布隆过滤器末尾也带有校验和
+    public static final byte FORMAT_VERSION = 6;
 
     // 特殊标记
     private static final byte NULL_MARKER = 0x00;
     private static final byte DATA_MARKER = 0x01;
     private static final byte DELETED_MARKER = 0x02;
+    public static final byte BATCH_MARKER = 0x03;
+    private static final byte RANGE_DELETION_MARKER = 0x04;
+
+    // WAL条目除键和值之外的长度：版本、类型、时间戳、序列号、键长度、值长度、校验和
+    private static final int LOG_ENTRY_OVERHEAD = 1 + 1 + 8 + 8 + 4 + 4 + 4;
+    // 批次条目的固定部分：版本、类型、时间戳、起始序列号、操作数、校验和
+    private static final int BATCH_ENTRY_OVERHEAD = 1 + 1 + 8 + 8 + 4 + 4;
+    // 批次中每个操作除键和值之外的长度：类型、键长度、值长度
+    private static final int BATCH_OPERATION_OVERHEAD = 1 + 4 + 4;
 
     /**
      * 编码键值对
@@ -100,42 +119,118 @@ public class BinaryEncoder {
      *
      * @param key 键
      * @param value 值
+     * @param sequence 写入分配的全局序列号
      * @param timestamp 时间戳
      * @return 编码后的字节数组
      */
-    public byte[] encodeLogEntry(String key, byte[] value, long timestamp) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(baos)) {
+    public byte[] encodeLogEntry(String key, byte[] value, long sequence, long timestamp) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(logEntrySize(key, value));
+        encodeLogEntry(key, value, sequence, timestamp, buffer);
+        return buffer.array();
+    }
 
-            // 写入版本和类型
-            dos.writeByte(FORMAT_VERSION);
-            dos.writeByte(value == null ? DELETED_MARKER : DATA_MARKER);
+    /**
+     * 计算WAL日志条目编码后的长度
+     */
+    public static int logEntrySize(String key, byte[] value) {
+        return LOG_ENTRY_OVERHEAD + ByteUtils.utf8Length(key) + (value != null ? value.length : 0);
+    }
 
-            // 写入时间戳
-            dos.writeLong(timestamp);
+    /**
+     * 把WAL日志条目直接编码到缓冲区
+     *
+     * 从缓冲区当前位置开始写入，写完后位置移到条目末尾。键直接按UTF-8写入，
+     * 校验和在缓冲区上计算，整个过程不产生临时对象，WAL的写入路径可以复用
+     * 同一个直接缓冲区。调用方需要保证剩余空间不少于logEntrySize。
+     */
+    public void encodeLogEntry(String key, byte[] value, long sequence, long timestamp, ByteBuffer out) {
+        int start = out.position();
 
-            // 写入序列号（这里简化为时间戳）
-            dos.writeLong(timestamp);
+        // 写入版本和类型
+        out.put(FORMAT_VERSION);
+        out.put(value == null ? DELETED_MARKER : DATA_MARKER);
 
-            // 编码键值对
-            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-            dos.writeInt(keyBytes.length);
-            dos.write(keyBytes);
+        // 写入时间戳
+        out.putLong(timestamp);
 
-            if (value != null) {
-                dos.writeInt(value.length);
-                dos.write(value);
-            } else {
-                dos.writeInt(0);
-            }
+        // 写入序列号
+        out.putLong(sequence);
 
-            // 计算并写入校验和
-            byte[] dataWithoutChecksum = baos.toByteArray();
-            int checksum = calculateChecksum(dataWithoutChecksum);
-            dos.writeInt(checksum);
+        // 编码键值对，键长度在写完键之后回填
+        int keyLengthPosition = out.position();
+        out.putInt(0);
+        out.putInt(keyLengthPosition, ByteUtils.putUtf8(out, key));
 
-            return baos.toByteArray();
+        if (value != null) {
+            out.putInt(value.length);
+            out.put(value);
+        } else {
+            out.putInt(0);
         }
+
+        // 计算并写入校验和
+        out.putInt(ChecksumType.CRC32C.compute(out, start, out.position()));
+    }
+
+    /**
+     * 计算批次条目编码后的长度
+     */
+    public static int batchEntrySize(WriteBatch batch) {
+        int size = BATCH_ENTRY_OVERHEAD;
+        for (WriteBatch.Operation operation : batch.getOperations()) {
+            size += BATCH_OPERATION_OVERHEAD + ByteUtils.utf8Length(operation.getKey());
+            if (operation.isRangeDeletion()) {
+                size += ByteUtils.utf8Length(operation.getEndKey());
+            } else if (!operation.isDeletion()) {
+                size += operation.getValue().length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 把写批次编码为一个WAL条目
+     *
+     * 整个批次只有一个校验和，恢复时要么完整重放，要么整体丢弃。
+     * 第i个操作的序列号为firstSequence + i，不单独存储。
+     *
+     * 批次条目格式：
+     * [版本][BATCH_MARKER][时间戳][起始序列号][操作数]
+     * [操作1]...[操作N][校验和]
+     *
+     * 每个操作：[类型][键长度][键数据][值长度][值数据]，删除的值长度为0，
+     * 范围删除的键和值分别是起始键和结束键
+     */
+    public void encodeBatchEntry(WriteBatch batch, long firstSequence, long timestamp, ByteBuffer out) {
+        int start = out.position();
+
+        out.put(FORMAT_VERSION);
+        out.put(BATCH_MARKER);
+        out.putLong(timestamp);
+        out.putLong(firstSequence);
+        out.putInt(batch.size());
+
+        for (WriteBatch.Operation operation : batch.getOperations()) {
+            out.put(operation.isRangeDeletion() ? RANGE_DELETION_MARKER
+                    : operation.isDeletion() ? DELETED_MARKER : DATA_MARKER);
+
+            int keyLengthPosition = out.position();
+            out.putInt(0);
+            out.putInt(keyLengthPosition, ByteUtils.putUtf8(out, operation.getKey()));
+
+            if (operation.isRangeDeletion()) {
+                int endLengthPosition = out.position();
+                out.putInt(0);
+                out.putInt(endLengthPosition, ByteUtils.putUtf8(out, operation.getEndKey()));
+            } else if (operation.isDeletion()) {
+                out.putInt(0);
+            } else {
+                out.putInt(operation.getValue().length);
+                out.put(operation.getValue());
+            }
+        }
+
+        out.putInt(ChecksumType.CRC32C.compute(out, start, out.position()));
     }
 
     /**
@@ -145,7 +240,7 @@ public class BinaryEncoder {
      * 让我们能够直接跳转到包含所需信息的页面。
      *
      * 索引格式：
-     * [版本][索引条目数][条目1][条目2]...[条目N]
+     * [版本][索引条目数][条目1][条目2]...[条目N][校验和]
      *
      * 每个索引条目：
      * [键长度][键数据][块偏移量][块大小]
@@ -168,6 +263,8 @@ public class BinaryEncoder {
                 dos.writeInt(entry.getSize());
             }
 
+            byte[] body = baos.toByteArray();
+            dos.writeInt(ChecksumType.CRC32C.compute(body, 0, body.length));
             return baos.toByteArray();
         }
     }
@@ -177,6 +274,9 @@ public class BinaryEncoder {
      *
      * 布隆过滤器的序列化需要保存位数组和哈希函数配置，
      * 这样反序列化时能够重建完全相同的过滤器。
+     *
+     * 过滤器格式：
+     * [版本][位数组大小][哈希函数个数][位数组长度][位数组][校验和]
      */
     public byte[] encodeBloomFilter(BloomFilter bloomFilter) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -193,20 +293,113 @@ public class BinaryEncoder {
             dos.writeInt(bitArray.length);
             dos.write(bitArray);
 
+            byte[] body = baos.toByteArray();
+            dos.writeInt(ChecksumType.CRC32C.compute(body, 0, body.length));
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * 编码表属性
+     *
+     * 属性块记录SSTable的统计信息和键范围，重新打开文件时
+     * 无需扫描数据块就能知道表的基本情况。
+     *
+     * 属性格式：
+     * [版本][条目数][最小键长度][最小键][最大键长度][最大键][最大序列号]
+     * [范围删除块偏移量][范围删除块大小][校验和]
+     */
+    public byte[] encodeTableProperties(TableProperties properties) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+
+            dos.writeByte(FORMAT_VERSION);
+            dos.writeLong(properties.getEntryCount());
+
+            byte[] smallestKey = properties.getSmallestKey().getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(smallestKey.length);
+            dos.write(smallestKey);
+
+            byte[] largestKey = properties.getLargestKey().getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(largestKey.length);
+            dos.write(largestKey);
+
+            dos.writeLong(properties.getLargestSequence());
+            dos.writeLong(properties.getRangeDeletionOffset());
+            dos.writeInt(properties.getRangeDeletionSize());
+
+            byte[] body = baos.toByteArray();
+            dos.writeInt(ChecksumType.CRC32C.compute(body, 0, body.length));
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * 编码范围删除块
+     *
+     * 格式：[版本][条目数]{[起始键长度][起始键][结束键长度][结束键][序列号]}[校验和]
+     */
+    public byte[] encodeRangeTombstones(List<RangeTombstone> tombstones) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+
+            dos.writeByte(FORMAT_VERSION);
+            dos.writeInt(tombstones.size());
+
+            for (RangeTombstone tombstone : tombstones) {
+                byte[] startKey = tombstone.getStartKey().getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(startKey.length);
+                dos.write(startKey);
+
+                byte[] endKey = tombstone.getEndKey().getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(endKey.length);
+                dos.write(endKey);
+
+                dos.writeLong(tombstone.getSequence());
+            }
+
+            byte[] body = baos.toByteArray();
+            dos.writeInt(ChecksumType.CRC32C.compute(body, 0, body.length));
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * 编码清单
+     *
+     * 清单记录每个层级当前有效的SSTable文件编号，Level 0按从旧到新的顺序排列。
+     *
+     * 格式：[版本][层级数]{[层级][文件数]{[文件编号]}}[校验和]
+     */
+    public byte[] encodeManifest(Map<Integer, List<Long>> levels) throws IOException {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(baos)) {
+
+            dos.writeByte(FORMAT_VERSION);
+            dos.writeInt(levels.size());
+
+            for (Map.Entry<Integer, List<Long>> level : levels.entrySet()) {
+                dos.writeInt(level.getKey());
+                dos.writeInt(level.getValue().size());
+                for (long fileNumber : level.getValue()) {
+                    dos.writeLong(fileNumber);
+                }
+            }
+
+            byte[] body = baos.toByteArray();
+            dos.writeInt(ChecksumType.CRC32C.compute(body, 0, body.length));
             return baos.toByteArray();
         }
     }
 
     /**
-     * 计算CRC32校验和
+     * 计算CRC32C校验和
      *
      * 校验和是数据完整性的保证。它就像是数据的"指纹"，
      * 任何微小的变化都会导致完全不同的校验和。
      */
     private int calculateChecksum(byte[] data) {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-        crc.update(data);
-        return (int) crc.getValue();
+        return ChecksumType.CRC32C.compute(data, 0, data.length);
     }
 
     /**
@@ -230,6 +423,11 @@ public class BinaryEncoder {
             return entries.size();
         }
 
+        /**
+         * 索引条目
+         *
+         * key是对应数据块中的最大键，查找时定位第一个最大键不小于目标键的块
+         */
         @Getter
         public static class Entry {
             private final String key;
@@ -244,4 +442,28 @@ public class BinaryEncoder {
 
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 表属性数据结构
+     */
+    @Getter
+    public static class TableProperties {
+        private final long entryCount;
+        private final String smallestKey;
+        private final String largestKey;
+        private final long largestSequence; // 表中最大的序列号，重启时用于恢复全局序列号
+        private final long rangeDeletionOffset; // 范围删除块的位置，没有范围删除时长度为0
+        private final int rangeDeletionSize;
+
+        public TableProperties(long entryCount, String smallestKey, String largestKey, long largestSequence,
+                               long rangeDeletionOffset, int rangeDeletionSize) {
+            this.entryCount = entryCount;
+            this.smallestKey = smallestKey;
+            this.largestKey = largestKey;
+            this.largestSequence = largestSequence;
+            this.rangeDeletionOffset = rangeDeletionOffset;
+            this.rangeDeletionSize = rangeDeletionSize;
+        }
+
+    }
+}
@@ -1,14 +1,18 @@
 package com.howard.lsm.storage;
 
-import com.howard.lsm.serialization.BinaryDecoder;
-import com.howard.lsm.utils.ByteUtils;
+import com.howard.lsm.core.InternalIterator;
+import com.howard.lsm.core.InternalKey;
+import com.howard.lsm.core.ValueType;
+import com.howard.lsm.utils.ChecksumType;
 import lombok.Getter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
 
 /**
  * 数据块实现
@@ -16,32 +20,30 @@ import java.util.TreeMap;
  * Block是SSTable内部的存储单元，具有以下设计特点：
  * 1. 固定大小：便于内存管理和磁盘I/O优化
  * 2. 有序存储：键按字典序排列，支持二分查找
- * 3. 压缩存储：使用前缀压缩减少存储空间
+ * 3. 按需解析：直接在原始字节上查找，不把整个块反序列化到内存
  * 4. 校验和：确保数据完整性
  *
  * 这种设计让我们能够高效地在磁盘上组织数据，同时保持良好的查询性能。
  * 想象一下，每个Block就像是一本字典中的一页，我们可以快速定位到
  * 包含我们要找的词的那一页，然后在页内进行精确查找。
+ *
+ * 块格式（由BlockBuilder生成）：
+ * [条目1][条目2]...[条目N][条目1偏移]...[条目N偏移][条目数量][校验和]
+ *
+ * 每个条目的格式：
+ * [键长度][键数据][值长度][值数据]
+ *
+ * 键数据是内部键：用户键的UTF-8编码之后跟8字节的序列号和类型（见{@link InternalKey}）。
+ *
+ * 尾部的偏移数组让我们可以直接跳到第i个条目，从而在块内做二分查找，
+ * 也能以相同的代价向前或向后遍历。
  */
 public class Block {
-    private final TreeMap<String, byte[]> data;
-    /**
-     * -- GETTER --
-     *  获取最小键
-     */
-    @Getter
-    private final String minKey;
-    /**
-     * -- GETTER --
-     *  获取最大键
-     */
-    @Getter
-    private final String maxKey;
-    private final int blockSize;
-    private final BinaryDecoder decoder;
+    // 尾部：条目数量(4) + 校验和(4)
+    static final int TRAILER_SIZE = 8;
 
-    // 块的元数据
-    private final long checksum;
+    private final ByteBuffer data;
+    private final int offsetsStart;
     /**
      * -- GETTER --
      *  获取条目数量
@@ -50,217 +52,291 @@ public class Block {
     private final int entryCount;
 
     /**
-     * 构造函数：创建新的数据块
-     *
-     * @param data 有序的键值对数据
-     * @param blockSize 块的最大大小
-     */
-    public Block(TreeMap<String, byte[]> data, int blockSize) {
-        this.data = new TreeMap<>(data);
-        this.blockSize = blockSize;
-        this.decoder = new BinaryDecoder();
-        this.entryCount = data.size();
-
-        // 计算键范围
-        this.minKey = data.isEmpty() ? "" : data.firstKey();
-        this.maxKey = data.isEmpty() ? "" : data.lastKey();
-
-        // 计算校验和
-        this.checksum = calculateChecksum();
-    }
-
-    /**
-     * 构造函数：从字节数组加载数据块
+     * 构造函数：从原始字节加载数据块
      *
-     * 这个构造函数用于从磁盘读取数据时重构Block对象
+     * 只校验并记录尾部信息，条目在访问时才解析。
+     * 块内的所有读取都使用绝对位置，同一个Block可以被多个线程共享。
      */
-    public Block(byte[] rawData) throws IOException {
-        this.decoder = new BinaryDecoder();
-        this.blockSize = rawData.length;
-
-        // 解析块数据
-        BlockParseResult result = parseBlockData(rawData);
-        this.data = result.data;
-        this.minKey = result.minKey;
-        this.maxKey = result.maxKey;
-        this.checksum = result.checksum;
-        this.entryCount = result.entryCount;
+    public Block(ByteBuffer rawData) throws IOException {
+        this.data = rawData.slice();
+        int size = data.remaining();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("Block too small: " + size + " bytes");
+        }
 
         // 验证校验和
-        if (this.checksum != calculateChecksum()) {
+        int expectedChecksum = data.getInt(size - 4);
+        if (expectedChecksum != calculateChecksum(data, size - 4)) {
             throw new IOException("Block checksum mismatch - data may be corrupted");
         }
+
+        this.entryCount = data.getInt(size - TRAILER_SIZE);
+        this.offsetsStart = size - TRAILER_SIZE - entryCount * 4;
+        if (entryCount < 0 || offsetsStart < 0) {
+            throw new IOException("Invalid block entry count: " + entryCount);
+        }
+    }
+
+    public Block(byte[] rawData) throws IOException {
+        this(ByteBuffer.wrap(rawData));
     }
 
     /**
-     * 获取指定键的值
+     * 获取指定键的最新值
      *
-     * 由于Block内部数据是有序的，我们可以使用TreeMap的O(log n)查找，
+     * 由于Block内部数据是有序的，我们可以借助偏移数组做二分查找，
      * 这比线性扫描要快得多，特别是当块内包含大量键值对时。
+     * 同一个键的多个版本中最新的排在最前面，删除标记返回null。
      */
     public byte[] get(String key) {
-        return data.get(key);
+        int index = seek(key);
+        if (index < entryCount && keyAt(index).equals(key)
+                && typeAt(index) == ValueType.VALUE) {
+            return valueAt(index);
+        }
+        return null;
     }
 
     /**
-     * 检查是否包含指定键
+     * 查找键在指定序列号时可见的值
      *
-     * 这个方法结合了范围检查和精确查找，首先快速排除不可能的情况，
-     * 然后进行精确查找。这种两阶段的查找策略能有效提升性能。
+     * @return 值；块中没有序列号不超过sequence的版本，或该版本是删除标记时返回null
      */
-    public boolean containsKey(String key) {
-        // 首先检查键是否在范围内
-        if (key.compareTo(minKey) < 0 || key.compareTo(maxKey) > 0) {
-            return false;
+    public byte[] get(String key, long sequence) {
+        int index = seek(key, sequence);
+        if (index < entryCount && keyAt(index).equals(key)
+                && typeAt(index) == ValueType.VALUE) {
+            return valueAt(index);
         }
-
-        // 然后进行精确查找
-        return data.containsKey(key);
+        return null;
     }
 
     /**
-     * 获取块大小
+     * 检查是否包含指定键
      */
-    public long getSize() {
-        return blockSize;
+    public boolean containsKey(String key) {
+        int index = seek(key);
+        return index < entryCount && keyAt(index).equals(key);
     }
 
     /**
-     * 将块写入文件通道
+     * 定位第一个用户键不小于指定键的条目，也就是该键最新的版本
      *
-     * 这个方法负责将Block的数据序列化并写入磁盘。我们使用一种紧凑的
-     * 二进制格式来减少存储空间，同时保持快速的反序列化性能。
+     * @return 条目编号，所有键都小于目标键时返回entryCount
      */
-    public void writeTo(FileChannel channel) throws IOException {
-        // 序列化块数据
-        byte[] serializedData = serializeBlock();
-
-        // 创建包含长度前缀的缓冲区
-        ByteBuffer buffer = ByteBuffer.allocate(4 + serializedData.length);
-        buffer.putInt(serializedData.length);
-        buffer.put(serializedData);
-        buffer.flip();
-
-        // 写入文件
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
+    public int seek(String key) {
+        int left = 0, right = entryCount;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (keyAt(mid).compareTo(key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
         }
+        return left;
     }
 
     /**
-     * 序列化块数据
-     *
-     * 我们使用自定义的二进制格式：
-     * [条目数量][校验和][键值对1][键值对2]...[键值对N]
+     * 定位第一个不小于(key, sequence)的条目，即该键序列号不超过sequence的最新版本；
+     * 这些版本都比sequence新时，返回下一个用户键的第一个条目
      *
-     * 每个键值对的格式：
-     * [键长度][键数据][值长度][值数据]
+     * @return 条目编号，所有条目都小于目标时返回entryCount
      */
-    private byte[] serializeBlock() {
-        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
-
-        // 写入元数据
-        buffer.putInt(entryCount);
-        buffer.putLong(checksum);
-
-        // 写入键值对
-        for (Map.Entry<String, byte[]> entry : data.entrySet()) {
-            String key = entry.getKey();
-            byte[] value = entry.getValue();
-
-            // 写入键
-            byte[] keyBytes = key.getBytes();
-            buffer.putInt(keyBytes.length);
-            buffer.put(keyBytes);
-
-            // 写入值
-            buffer.putInt(value.length);
-            buffer.put(value);
+    public int seek(String key, long sequence) {
+        int left = 0, right = entryCount;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            int result = keyAt(mid).compareTo(key);
+            if (result < 0 || (result == 0 && sequenceAt(mid) > sequence)) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
         }
+        return left;
+    }
+
+    /**
+     * 读取第i个条目的用户键
+     */
+    public String keyAt(int index) {
+        int offset = entryOffset(index);
+        int keyLength = data.getInt(offset) - InternalKey.TRAILER_SIZE;
+        byte[] keyBytes = new byte[keyLength];
+        data.get(offset + 4, keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
 
-        // 返回实际使用的字节
-        byte[] result = new byte[buffer.position()];
-        buffer.flip();
-        buffer.get(result);
-        return result;
+    /**
+     * 读取第i个条目的序列号
+     */
+    public long sequenceAt(int index) {
+        return trailerAt(index) >>> 8;
     }
 
     /**
-     * 解析块数据
+     * 读取第i个条目的类型
      */
-    private BlockParseResult parseBlockData(byte[] rawData) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(rawData);
-
-        // 读取元数据
-        int entryCount = buffer.getInt();
-        long checksum = buffer.getLong();
-
-        // 读取键值对
-        TreeMap<String, byte[]> data = new TreeMap<>();
-        String minKey = null;
-        String maxKey = null;
-
-        for (int i = 0; i < entryCount; i++) {
-            // 读取键
-            int keyLength = buffer.getInt();
-            byte[] keyBytes = new byte[keyLength];
-            buffer.get(keyBytes);
-            String key = new String(keyBytes);
-
-            // 读取值
-            int valueLength = buffer.getInt();
-            byte[] value = new byte[valueLength];
-            buffer.get(value);
-
-            // 存储键值对
-            data.put(key, value);
-
-            // 更新键范围
-            if (minKey == null || key.compareTo(minKey) < 0) {
-                minKey = key;
-            }
-            if (maxKey == null || key.compareTo(maxKey) > 0) {
-                maxKey = key;
+    public ValueType typeAt(int index) {
+        return ValueType.fromCode((int) (trailerAt(index) & 0xFF));
+    }
+
+    /**
+     * 读取第i个条目的内部键
+     */
+    public InternalKey internalKeyAt(int index) {
+        return InternalKey.unpack(keyAt(index), trailerAt(index));
+    }
+
+    /**
+     * 读取第i个条目的值
+     */
+    public byte[] valueAt(int index) {
+        int offset = entryOffset(index);
+        int valueOffset = offset + 4 + data.getInt(offset);
+        byte[] value = new byte[data.getInt(valueOffset)];
+        data.get(valueOffset + 4, value);
+        return value;
+    }
+
+    /**
+     * 按内部键的顺序遍历块内的所有条目
+     */
+    public Iterator<Map.Entry<InternalKey, byte[]>> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < entryCount;
             }
-        }
 
-        return new BlockParseResult(data, minKey, maxKey, checksum, entryCount);
+            @Override
+            public Map.Entry<InternalKey, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int index = next++;
+                return new AbstractMap.SimpleImmutableEntry<>(internalKeyAt(index), valueAt(index));
+            }
+        };
     }
 
     /**
-     * 计算块的校验和
+     * 创建块内的双向游标
      *
-     * 使用CRC32算法计算所有键值对的校验和，这能帮助我们检测
-     * 数据在存储或传输过程中是否发生了损坏。
+     * 偏移数组可以直接定位任意条目，向前和向后移动的代价相同，不需要额外的索引。
      */
-    private long calculateChecksum() {
-        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+    public InternalIterator cursor() {
+        return new Cursor();
+    }
 
-        for (Map.Entry<String, byte[]> entry : data.entrySet()) {
-            crc.update(entry.getKey().getBytes());
-            crc.update(entry.getValue());
+    /**
+     * 定位第一个不小于target的条目
+     */
+    private int lowerBound(InternalKey target) {
+        int left = 0, right = entryCount;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (internalKeyAt(mid).compareTo(target) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
         }
-
-        return crc.getValue();
+        return left;
     }
 
     /**
-     * 块解析结果
+     * 块内游标，位置为-1或entryCount时无效；当前条目的内部键解析一次后缓存
      */
-    private static class BlockParseResult {
-        final TreeMap<String, byte[]> data;
-        final String minKey;
-        final String maxKey;
-        final long checksum;
-        final int entryCount;
-
-        BlockParseResult(TreeMap<String, byte[]> data, String minKey, String maxKey,
-                         long checksum, int entryCount) {
-            this.data = data;
-            this.minKey = minKey;
-            this.maxKey = maxKey;
-            this.checksum = checksum;
-            this.entryCount = entryCount;
+    private class Cursor implements InternalIterator {
+        private int index = -1;
+        private InternalKey key;
+
+        @Override
+        public boolean isValid() {
+            return index >= 0 && index < entryCount;
+        }
+
+        @Override
+        public void seekToFirst() {
+            moveTo(0);
+        }
+
+        @Override
+        public void seekToLast() {
+            moveTo(entryCount - 1);
+        }
+
+        @Override
+        public void seek(InternalKey target) {
+            moveTo(lowerBound(target));
+        }
+
+        @Override
+        public void seekForPrev(InternalKey target) {
+            int position = lowerBound(target);
+            if (position < entryCount && internalKeyAt(position).equals(target)) {
+                moveTo(position);
+            } else {
+                moveTo(position - 1);
+            }
+        }
+
+        @Override
+        public void next() {
+            moveTo(index + 1);
         }
+
+        @Override
+        public void prev() {
+            moveTo(index - 1);
+        }
+
+        @Override
+        public InternalKey key() {
+            if (key == null) {
+                key = internalKeyAt(index);
+            }
+            return key;
+        }
+
+        @Override
+        public byte[] value() {
+            return valueAt(index);
+        }
+
+        private void moveTo(int position) {
+            index = position;
+            key = null;
+        }
+    }
+
+    /**
+     * 获取块大小
+     */
+    public long getSize() {
+        return data.capacity();
+    }
+
+    private int entryOffset(int index) {
+        return data.getInt(offsetsStart + index * 4);
+    }
+
+    private long trailerAt(int index) {
+        int offset = entryOffset(index);
+        return data.getLong(offset + 4 + data.getInt(offset) - InternalKey.TRAILER_SIZE);
+    }
+
+    /**
+     * 计算块的校验和
+     *
+     * 使用CRC32C算法计算块内容的校验和，这能帮助我们检测
+     * 数据在存储或传输过程中是否发生了损坏。
+     */
+    static int calculateChecksum(ByteBuffer buffer, int length) {
+        return ChecksumType.CRC32C.compute(buffer, 0, length);
     }
-}
\ No newline at end of file
+}
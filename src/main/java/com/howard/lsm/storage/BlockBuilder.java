@@ -1,8 +1,10 @@
 package com.howard.lsm.storage;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.TreeMap;
+import com.howard.lsm.core.InternalKey;
+import com.howard.lsm.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * 块构建器
@@ -12,80 +14,122 @@ import java.util.TreeMap;
  * 帮助我们按照最优的方式组装材料（键值对）。
  *
  * 核心设计理念：
- * 1. 增量构建：逐步添加键值对，直到达到块大小限制
- * 2. 自动分割：当数据量超过限制时，自动创建新块
- * 3. 内存优化：避免不必要的数据复制和内存分配
- * 4. 顺序保证：确保生成的块内数据保持有序
+ * 1. 增量构建：逐步添加键值对，直接写成块的二进制格式
+ * 2. 流式输出：块写满后由调用方取走并写入文件，内存中只保留一个块
+ * 3. 内存优化：复用同一个缓冲区，避免不必要的数据复制和内存分配
+ * 4. 顺序保证：要求按内部键严格递增的顺序添加，确保生成的块内数据有序
  */
 public class BlockBuilder {
     private final int maxBlockSize;
-    private final List<Block> completedBlocks;
 
     // 当前正在构建的块
-    private TreeMap<String, byte[]> currentData;
-    private int currentSize;
+    private ByteBuffer buffer;
+    private int[] offsets;
+    private int currentEntries;
+    private InternalKey lastKey;
 
     // 统计信息
+    private int blockCount = 0;
     private int totalEntries = 0;
     private long totalDataSize = 0;
 
     /**
      * 构造函数
      *
-     * @param maxBlockSize 每个块的最大大小（字节）
+     * @param maxBlockSize 每个块的目标大小（字节）
      */
     public BlockBuilder(int maxBlockSize) {
         this.maxBlockSize = maxBlockSize;
-        this.completedBlocks = new ArrayList<>();
-        this.currentData = new TreeMap<>();
-        this.currentSize = 0;
+        this.buffer = ByteBuffer.allocate(maxBlockSize + Block.TRAILER_SIZE);
+        this.offsets = new int[64];
+        this.currentEntries = 0;
     }
 
     /**
      * 添加键值对
      *
-     * 这个方法是BlockBuilder的核心。它不仅仅是简单地添加数据，
-     * 还会智能地管理块的大小和分割。就像一个经验丰富的包装工，
-     * 知道什么时候该换一个新箱子。
+     * 键值对被直接追加到当前块的缓冲区中。块的切分交给调用方：
+     * 每次添加后检查isFull()，写满时调用finish()取走这个块。
+     *
+     * 键按内部键的格式写入：用户键之后是序列号和类型组成的8字节尾部。
      *
-     * @param key 键
+     * @param key 内部键，必须大于之前添加的所有键
      * @param value 值
      */
-    public void add(String key, byte[] value) {
-        // 计算这个键值对需要的空间
-        int entrySize = calculateEntrySize(key, value);
-
-        // 检查是否需要创建新块
-        if (currentSize + entrySize > maxBlockSize && !currentData.isEmpty()) {
-            finishCurrentBlock();
-            startNewBlock();
+    public void add(InternalKey key, byte[] value) {
+        if (lastKey != null && key.compareTo(lastKey) <= 0) {
+            throw new IllegalArgumentException(
+                    "Keys must be added in increasing order: " + key + " after " + lastKey);
+        }
+
+        int keyLength = ByteUtils.utf8Length(key.getUserKey()) + InternalKey.TRAILER_SIZE;
+        int entrySize = calculateEntrySize(keyLength, value);
+        ensureCapacity(entrySize);
+
+        if (currentEntries == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
         }
+        offsets[currentEntries++] = buffer.position();
+
+        buffer.putInt(keyLength);
+        ByteUtils.putUtf8(buffer, key.getUserKey());
+        buffer.putLong(key.packTrailer());
+        buffer.putInt(value.length);
+        buffer.put(value);
 
-        // 添加到当前块
-        currentData.put(key, value);
-        currentSize += entrySize;
+        lastKey = key;
         totalEntries++;
         totalDataSize += entrySize;
     }
 
     /**
-     * 完成构建并返回所有块
+     * 当前块是否已经达到目标大小
+     */
+    public boolean isFull() {
+        return buffer.position() >= maxBlockSize;
+    }
+
+    /**
+     * 当前块是否为空
+     */
+    public boolean isEmpty() {
+        return currentEntries == 0;
+    }
+
+    /**
+     * 当前块完成后的预计大小
+     */
+    public int currentSize() {
+        return buffer.position() + currentEntries * 4 + Block.TRAILER_SIZE;
+    }
+
+    /**
+     * 当前块中最后添加的键，也就是块的最大键
+     */
+    public InternalKey getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * 完成当前块并返回其二进制内容
      *
-     * 这个方法类似于"交付成品"。它会确保所有未完成的工作
-     * 都被妥善处理，然后返回完整的块列表。
+     * 写入偏移数组、条目数量和校验和，然后重置状态开始下一个块。
+     * 键的顺序约束会跨块保持。
      */
-    public List<Block> build() {
-        // 完成最后一个块（如果有数据的话）
-        if (!currentData.isEmpty()) {
-            finishCurrentBlock();
-        }
+    public byte[] finish() {
+        ensureCapacity(currentEntries * 4 + Block.TRAILER_SIZE);
 
-        // 返回所有已完成的块
-        List<Block> result = new ArrayList<>(completedBlocks);
+        for (int i = 0; i < currentEntries; i++) {
+            buffer.putInt(offsets[i]);
+        }
+        buffer.putInt(currentEntries);
+        buffer.putInt(Block.calculateChecksum(buffer, buffer.position()));
 
-        // 重置构建器状态，为下次使用做准备
-        reset();
+        byte[] result = Arrays.copyOf(buffer.array(), buffer.position());
 
+        buffer.clear();
+        currentEntries = 0;
+        blockCount++;
         return result;
     }
 
@@ -98,10 +142,10 @@ public class BlockBuilder {
      */
     public BuilderStats getStats() {
         return new BuilderStats(
-                completedBlocks.size(),
+                blockCount,
                 totalEntries,
                 totalDataSize,
-                completedBlocks.isEmpty() ? 0 : totalDataSize / completedBlocks.size()
+                blockCount == 0 ? 0 : totalDataSize / blockCount
         );
     }
 
@@ -110,63 +154,25 @@ public class BlockBuilder {
      *
      * 这个方法考虑了序列化后的实际空间需求，包括：
      * - 键的长度前缀（4字节）
-     * - 键的实际内容
+     * - 内部键的实际内容（用户键和8字节尾部）
      * - 值的长度前缀（4字节）
      * - 值的实际内容
-     *
-     * 准确的空间估算对于有效的块分割至关重要。
      */
-    private int calculateEntrySize(String key, byte[] value) {
-        return 4 + key.getBytes().length + 4 + value.length;
+    private int calculateEntrySize(int keyLength, byte[] value) {
+        return 4 + keyLength + 4 + value.length;
     }
 
     /**
-     * 完成当前块的构建
-     *
-     * 这个方法将当前正在构建的数据转换为一个完整的Block对象。
-     * 这个过程包括最终的数据整理和优化。
+     * 确保缓冲区还能写入指定字节数，单个大条目可能超过块的目标大小
      */
-    private void finishCurrentBlock() {
-        if (currentData.isEmpty()) {
-            return;
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer larger = ByteBuffer.allocate(newCapacity);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
         }
-
-        // 创建新的块
-        Block block = new Block(currentData, currentSize);
-        completedBlocks.add(block);
-
-        // 记录块的统计信息
-        logBlockStats(block);
-    }
-
-    /**
-     * 开始构建新块
-     *
-     * 重置构建器的状态，为构建下一个块做准备。
-     * 这就像清理工作台，准备开始下一个项目。
-     */
-    private void startNewBlock() {
-        currentData = new TreeMap<>();
-        currentSize = 0;
-    }
-
-    /**
-     * 重置构建器状态
-     */
-    private void reset() {
-        completedBlocks.clear();
-        currentData.clear();
-        currentSize = 0;
-        totalEntries = 0;
-        totalDataSize = 0;
-    }
-
-    /**
-     * 记录块的统计信息
-     */
-    private void logBlockStats(Block block) {
-        // 这里可以添加日志记录或监控指标
-        // 例如记录块的大小分布、键的数量等
     }
 
     /**
@@ -199,4 +205,4 @@ public class BlockBuilder {
             );
         }
     }
-}
\ No newline at end of file
+}
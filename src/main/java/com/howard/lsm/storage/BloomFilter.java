@@ -19,18 +19,39 @@ public class BloomFilter {
     private final int bitSetSize;
 
     public BloomFilter(int expectedEntries, double falsePositiveRate) {
+        // 空表也需要一个合法的过滤器，至少按1个条目计算
+        expectedEntries = Math.max(1, expectedEntries);
         this.bitSetSize = calculateOptimalSize(expectedEntries, falsePositiveRate);
         this.numHashFunctions = calculateOptimalHashFunctions(bitSetSize, expectedEntries);
         this.bitSet = new BitSet(bitSetSize);
     }
 
+    /**
+     * 从序列化的数据恢复过滤器
+     */
+    public BloomFilter(int bitSetSize, int numHashFunctions, byte[] bitArray) {
+        this.bitSetSize = bitSetSize;
+        this.numHashFunctions = numHashFunctions;
+        this.bitSet = BitSet.valueOf(bitArray);
+    }
+
     /**
      * 添加键到过滤器
      */
     public void add(String key) {
-        byte[] keyBytes = key.getBytes();
+        addHash(hash64(key));
+    }
+
+    /**
+     * 添加由{@link #hash64(String)}计算出的键哈希，与直接添加键的效果相同
+     *
+     * 构建器在键到达时只保存这个哈希，不必持有键本身，等键的总数确定后再建过滤器。
+     */
+    public void addHash(long hash64) {
+        int hash1 = (int) (hash64 >>> 32);
+        int hash2 = (int) hash64;
         for (int i = 0; i < numHashFunctions; i++) {
-            int hash = hash(keyBytes, i);
+            int hash = hash1 + i * hash2;
             bitSet.set(Math.abs(hash % bitSetSize));
         }
     }
@@ -39,9 +60,11 @@ public class BloomFilter {
      * 检查键是否可能存在
      */
     public boolean mightContain(String key) {
-        byte[] keyBytes = key.getBytes();
+        long hash64 = hash64(key);
+        int hash1 = (int) (hash64 >>> 32);
+        int hash2 = (int) hash64;
         for (int i = 0; i < numHashFunctions; i++) {
-            int hash = hash(keyBytes, i);
+            int hash = hash1 + i * hash2;
             if (!bitSet.get(Math.abs(hash % bitSetSize))) {
                 return false;
             }
@@ -49,6 +72,16 @@ public class BloomFilter {
         return true;
     }
 
+    /**
+     * 计算键的64位哈希，高32位和低32位是双重哈希使用的两个基础哈希
+     */
+    public static long hash64(String key) {
+        byte[] keyBytes = key.getBytes();
+        int hash1 = murmurHash3(keyBytes, 0);
+        int hash2 = murmurHash3(keyBytes, hash1);
+        return ((long) hash1 << 32) | (hash2 & 0xFFFFFFFFL);
+    }
+
     public byte[] getByteArray() {
         return bitSet.toByteArray();
     }
@@ -67,19 +100,10 @@ public class BloomFilter {
         return Math.max(1, (int) Math.round((double) bitSetSize / expectedEntries * Math.log(2)));
     }
 
-    /**
-     * 哈希函数实现（使用双重哈希）
-     */
-    private int hash(byte[] data, int i) {
-        int hash1 = murmurHash3(data, 0);
-        int hash2 = murmurHash3(data, hash1);
-        return hash1 + i * hash2;
-    }
-
     /**
      * MurmurHash3实现
      */
-    private int murmurHash3(byte[] data, int seed) {
+    private static int murmurHash3(byte[] data, int seed) {
         int h = seed;
         for (byte datum : data) {
             h ^= datum;
@@ -1,7 +1,11 @@
 package com.howard.lsm.storage;
 
+import com.howard.lsm.cache.BlockCache;
 import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.core.InternalKey;
+import com.howard.lsm.core.LookupResult;
 import com.howard.lsm.core.SSTable;
+import com.howard.lsm.core.SSTableBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,6 +16,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -33,16 +38,23 @@ public class LevelManager {
     private static final Logger logger = LoggerFactory.getLogger(LevelManager.class);
 
     private final LSMConfig config;
+    private final BlockCache blockCache;
     private final Map<Integer, List<SSTable>> levels;
     private final ReadWriteLock globalLock = new ReentrantReadWriteLock();
+    private final Manifest manifest;
 
     // 每层的大小限制（字节）
     private final long[] levelSizeLimits;
 
-    public LevelManager(LSMConfig config) {
+    // 新文件编号，启动时从已有文件中恢复最大值
+    private final AtomicLong nextFileNumber = new AtomicLong(0);
+
+    public LevelManager(LSMConfig config, BlockCache blockCache) {
         this.config = config;
+        this.blockCache = blockCache;
         this.levels = new ConcurrentHashMap<>();
         this.levelSizeLimits = calculateLevelSizeLimits();
+        this.manifest = new Manifest(Paths.get(config.getDataDirectory()));
 
         // 初始化所有层级
         for (int i = 0; i < config.getMaxLevel(); i++) {
@@ -55,6 +67,7 @@ public class LevelManager {
      *
      * 这个方法是数据流入存储引擎的关键入口。它不仅要正确地
      * 放置新的SSTable，还要维护层级的有序性和完整性。
+     * 返回时新文件已经记入清单，重启后仍然有效。
      *
      * @param sstable 要添加的SSTable
      * @param level 目标层级
@@ -66,21 +79,14 @@ public class LevelManager {
 
         globalLock.writeLock().lock();
         try {
-            List<SSTable> levelTables = levels.get(level);
-
-            if (level == 0) {
-                // Level 0 允许重叠，直接添加
-                levelTables.add(sstable);
-                logger.debug("Added SSTable to level 0: {}", sstable.getFilePath());
-            } else {
-                // Level 1+ 需要保持有序且无重叠
-                insertSortedSSTable(levelTables, sstable);
-                logger.debug("Added SSTable to level {}: {}", level, sstable.getFilePath());
+            insertSSTable(sstable, level);
+            try {
+                writeManifest();
+            } catch (IOException e) {
+                levels.get(level).remove(sstable);
+                throw e;
             }
 
-            // 记录层级状态
-            logLevelStats(level);
-
         } finally {
             globalLock.writeLock().unlock();
         }
@@ -91,27 +97,45 @@ public class LevelManager {
      *
      * 这是查询路径的核心实现。它体现了LSM-Tree的查询策略：
      * 从最新的数据开始查找（Level 0），逐层向下搜索，
-     * 直到找到目标键或确认键不存在。
+     * 直到找到目标键、遇到它的删除标记或确认键不存在。
      */
     public byte[] get(String key) throws IOException {
+        return get(key, InternalKey.MAX_SEQUENCE);
+    }
+
+    /**
+     * 查找键在指定序列号时可见的值，供快照读取使用
+     */
+    public byte[] get(String key, long sequence) throws IOException {
+        LookupResult result = lookup(key, sequence);
+        return result == null ? null : result.getValue();
+    }
+
+    /**
+     * 查找键在指定序列号时可见的最新版本
+     *
+     * 从新到旧逐个文件查找，遇到第一个可见的版本就停止：是值就返回值，
+     * 是删除标记说明键已被删除，不再查找更旧的层级。
+     *
+     * @return 最新可见的版本是删除标记时返回LookupResult.DELETED，所有层级都没有这个键时返回null
+     */
+    public LookupResult lookup(String key, long sequence) throws IOException {
         globalLock.readLock().lock();
         try {
             // 从Level 0开始查找（最新数据）
             for (int level = 0; level < config.getMaxLevel(); level++) {
                 List<SSTable> levelTables = levels.get(level);
 
+                LookupResult result;
                 if (level == 0) {
                     // Level 0 需要检查所有文件（因为可能重叠）
-                    byte[] result = searchInLevel0(levelTables, key);
-                    if (result != null) {
-                        return result;
-                    }
+                    result = searchInLevel0(levelTables, key, sequence);
                 } else {
                     // Level 1+ 可以使用二分查找优化
-                    byte[] result = searchInLevelN(levelTables, key);
-                    if (result != null) {
-                        return result;
-                    }
+                    result = searchInLevelN(levelTables, key, sequence);
+                }
+                if (result != null) {
+                    return result;
                 }
             }
 
@@ -122,6 +146,82 @@ public class LevelManager {
         }
     }
 
+    /**
+     * 检查键在指定序列号之后是否被写入过，供事务提交时检测写写冲突
+     *
+     * 最大序列号不超过sequence的文件不可能包含更新的版本，直接跳过。
+     */
+    public boolean hasNewerVersion(String key, long sequence) throws IOException {
+        globalLock.readLock().lock();
+        try {
+            for (List<SSTable> levelTables : levels.values()) {
+                for (SSTable table : levelTables) {
+                    if (table.getLargestSequence() > sequence
+                            && table.getLatestSequence(key) > sequence) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取键范围与[from, to)重叠的SSTable并为每个文件增加引用，按查找顺序排列：
+     * Level 0从新到旧，之后逐层向下
+     *
+     * 调用方遍历结束后必须对每个文件调用unref，在此之前文件不会因压缩被删除。
+     *
+     * @param from 起始键（包含），为null表示没有下界
+     * @param to 结束键（不包含），为null表示没有上界
+     */
+    public List<SSTable> acquireSSTables(String from, String to) {
+        globalLock.readLock().lock();
+        try {
+            List<SSTable> result = new ArrayList<>();
+            for (int level = 0; level < config.getMaxLevel(); level++) {
+                List<SSTable> levelTables = levels.get(level);
+                for (int i = 0; i < levelTables.size(); i++) {
+                    SSTable table = levelTables.get(level == 0 ? levelTables.size() - 1 - i : i);
+                    if ((table.getEntryCount() == 0 && table.getRangeTombstones().isEmpty())
+                            || (from != null && table.getLargestKey().compareTo(from) < 0)
+                            || (to != null && table.getSmallestKey().compareTo(to) >= 0)) {
+                        continue;
+                    }
+                    result.add(table);
+                }
+            }
+            // 持有读锁期间文件不会被替换，引用一定能获取成功
+            result.forEach(SSTable::ref);
+            return result;
+
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取所有SSTable中的最大序列号，启动时用于恢复全局序列号
+     */
+    public long getLargestSequence() {
+        globalLock.readLock().lock();
+        try {
+            long largest = 0;
+            for (List<SSTable> tables : levels.values()) {
+                for (SSTable table : tables) {
+                    largest = Math.max(largest, table.getLargestSequence());
+                }
+            }
+            return largest;
+
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
     /**
      * 检查指定层级是否需要压缩
      *
@@ -180,23 +280,125 @@ public class LevelManager {
         }
     }
 
+    /**
+     * 获取指定层级中与键范围[smallest, largest]重叠的文件
+     *
+     * 压缩时，除了源层级选出的文件，还必须把目标层级中键范围重叠的文件
+     * 一起归并，否则目标层级就会出现重叠的文件，破坏Level 1+的无重叠约束。
+     * 返回的文件按最小键排序，对于Level 1+可以首尾相接成一个有序序列。
+     */
+    public List<SSTable> getOverlappingSSTables(int level, String smallest, String largest) {
+        if (level >= config.getMaxLevel()) {
+            return Collections.emptyList();
+        }
+
+        globalLock.readLock().lock();
+        try {
+            List<SSTable> result = new ArrayList<>();
+            for (SSTable table : levels.get(level)) {
+                if (table.overlaps(smallest, largest)) {
+                    result.add(table);
+                }
+            }
+            result.sort(Comparator.comparing(SSTable::getSmallestKey));
+            return result;
+
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 判断level是否是键范围[smallest, largest]的最底层，即更深的层级中没有与之重叠的文件
+     *
+     * 压缩输出到最底层时，没有更旧的数据需要遮盖，墓碑可以丢弃。
+     */
+    public boolean isBottommost(int level, String smallest, String largest) {
+        globalLock.readLock().lock();
+        try {
+            for (int deeper = level + 1; deeper < config.getMaxLevel(); deeper++) {
+                for (SSTable table : levels.get(deeper)) {
+                    if (table.overlaps(smallest, largest)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 为指定层级创建SSTable构建器
+     *
+     * 生成的文件使用共享的块缓存。
+     */
+    public SSTableBuilder newSSTableBuilder(int level) throws IOException {
+        return new SSTableBuilder(newSSTablePath(level), level, config, blockCache);
+    }
+
+    /**
+     * 为指定层级生成新的SSTable文件路径
+     *
+     * 文件放在对应的level_N目录下，与启动时的加载路径保持一致。
+     * 文件编号单调递增，Level 0依靠它在重启后恢复文件的新旧顺序。
+     */
+    private Path newSSTablePath(int level) throws IOException {
+        Path levelDir = Paths.get(config.getDataDirectory(), "level_" + level);
+        Files.createDirectories(levelDir);
+        return levelDir.resolve(String.format("sstable_%d.dat", nextFileNumber.incrementAndGet()));
+    }
+
+    /**
+     * 从文件名解析文件编号，无法识别的文件名返回0
+     */
+    public static long fileNumberOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("sstable_") || !name.endsWith(".dat")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring("sstable_".length(), name.length() - ".dat".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * 替换文件
      *
      * 这是压缩操作的最后一步，用新生成的文件替换旧文件。
      * 这个操作必须是原子的，确保在任何时候数据都是一致的。
+     * 旧文件既包括源层级的文件，也包括目标层级中参与归并的重叠文件。
+     *
+     * 内存中的层级和磁盘上的清单在同一次加锁中更新，清单写入成功才算替换完成；
+     * 写入失败时恢复原来的层级并抛出异常，新文件由调用方删除。
+     * 旧文件在清单生效后才能删除，删除前崩溃的话重启时作为孤儿清理。
      */
     public void replaceFiles(int sourceLevel, List<SSTable> oldFiles,
                              int targetLevel, List<SSTable> newFiles) throws IOException {
         globalLock.writeLock().lock();
         try {
-            // 从源层级移除旧文件
-            List<SSTable> sourceTables = levels.get(sourceLevel);
-            sourceTables.removeAll(oldFiles);
+            List<SSTable> sourceTables = new ArrayList<>(levels.get(sourceLevel));
+            List<SSTable> targetTables = new ArrayList<>(levels.get(targetLevel));
+
+            // 从源层级和目标层级移除旧文件
+            levels.get(sourceLevel).removeAll(oldFiles);
+            levels.get(targetLevel).removeAll(oldFiles);
 
             // 向目标层级添加新文件
             for (SSTable newFile : newFiles) {
-                addSSTable(newFile, targetLevel);
+                insertSSTable(newFile, targetLevel);
+            }
+
+            try {
+                writeManifest();
+            } catch (IOException e) {
+                levels.put(sourceLevel, sourceTables);
+                levels.put(targetLevel, targetTables);
+                throw e;
             }
 
             logger.info("Replaced {} files in level {} with {} files in level {}",
@@ -211,16 +413,22 @@ public class LevelManager {
      * 加载现有的SSTable文件
      *
      * 系统启动时，需要从磁盘加载现有的SSTable文件。
-     * 这个方法扫描数据目录，重建内存中的层级结构。
+     * 有清单时只加载清单中的文件，其余文件是崩溃前未安装的输出或未删除的输入，
+     * 直接删除；没有清单的旧数据目录扫描各层级目录重建层级结构，再写出清单。
      */
     public void loadExistingSSTables() throws IOException {
         Path dataDir = Paths.get(config.getDataDirectory());
-        if (!Files.exists(dataDir)) {
-            return;
-        }
 
         globalLock.writeLock().lock();
         try {
+            if (!Files.exists(dataDir)) {
+                // 新建的数据库先写出空清单，之后任何未安装的文件都能被识别为孤儿
+                writeManifest();
+                return;
+            }
+
+            Map<Integer, List<Long>> liveFiles = manifest.read();
+
             // 扫描每个层级目录
             for (int level = 0; level < config.getMaxLevel(); level++) {
                 Path levelDir = dataDir.resolve("level_" + level);
@@ -228,7 +436,15 @@ public class LevelManager {
                     continue;
                 }
 
-                loadSSTables(level, levelDir);
+                if (liveFiles == null) {
+                    loadSSTables(level, levelDir);
+                } else {
+                    loadSSTables(level, levelDir, liveFiles.getOrDefault(level, List.of()));
+                }
+            }
+
+            if (liveFiles == null) {
+                writeManifest();
             }
 
             logger.info("Loaded existing SSTables from disk");
@@ -238,19 +454,52 @@ public class LevelManager {
         }
     }
 
+    /**
+     * 把SSTable放入层级，不更新清单
+     */
+    private void insertSSTable(SSTable sstable, int level) {
+        List<SSTable> levelTables = levels.get(level);
+
+        if (level == 0) {
+            // Level 0 允许重叠，直接添加
+            levelTables.add(sstable);
+            logger.debug("Added SSTable to level 0: {}", sstable.getFilePath());
+        } else {
+            // Level 1+ 需要保持有序且无重叠
+            insertSortedSSTable(levelTables, sstable);
+            logger.debug("Added SSTable to level {}: {}", level, sstable.getFilePath());
+        }
+
+        // 记录层级状态
+        logLevelStats(level);
+    }
+
+    /**
+     * 把当前的层级结构写入清单，调用方必须持有写锁
+     */
+    private void writeManifest() throws IOException {
+        Map<Integer, List<Long>> liveFiles = new TreeMap<>();
+        for (Map.Entry<Integer, List<SSTable>> level : levels.entrySet()) {
+            List<Long> fileNumbers = new ArrayList<>(level.getValue().size());
+            for (SSTable table : level.getValue()) {
+                fileNumbers.add(fileNumberOf(table.getFilePath()));
+            }
+            liveFiles.put(level.getKey(), fileNumbers);
+        }
+        manifest.write(liveFiles);
+    }
+
     /**
      * 在Level 0中搜索
      */
-    private byte[] searchInLevel0(List<SSTable> tables, String key) throws IOException {
+    private LookupResult searchInLevel0(List<SSTable> tables, String key, long sequence) throws IOException {
         // Level 0 文件可能重叠，需要按时间戳倒序查找
         // 这里简化为直接查找所有文件
         for (int i = tables.size() - 1; i >= 0; i--) {
-            SSTable table = tables.get(i);
-            if (table.mightContain(key)) {
-                byte[] result = table.get(key);
-                if (result != null) {
-                    return result;
-                }
+            // lookup内部先检查范围删除再检查布隆过滤器
+            LookupResult result = tables.get(i).lookup(key, sequence);
+            if (result != null) {
+                return result;
             }
         }
         return null;
@@ -258,21 +507,28 @@ public class LevelManager {
 
     /**
      * 在Level N中搜索（N > 0）
+     *
+     * Level 1+ 的文件按键范围有序且互不重叠，二分找到第一个最大键不小于key的文件，
+     * 通常只需读取这一个文件。范围删除会把文件的最大键扩展到删除范围的结束键，
+     * 这个键本身不在删除范围内、可能出现在下一个文件的开头，因此未命中时
+     * 继续检查起始键不大于key的相邻文件。
      */
-    private byte[] searchInLevelN(List<SSTable> tables, String key) throws IOException {
-        // Level 1+ 文件无重叠，可以用二分查找
-        int left = 0, right = tables.size() - 1;
+    private LookupResult searchInLevelN(List<SSTable> tables, String key, long sequence) throws IOException {
+        int left = 0, right = tables.size();
 
-        while (left <= right) {
+        while (left < right) {
             int mid = left + (right - left) / 2;
-            SSTable table = tables.get(mid);
-
-            if (table.keyInRange(key)) {
-                return table.get(key);
-            } else if (table.getMaxKey() < 0) {
+            if (tables.get(mid).getLargestKey().compareTo(key) < 0) {
                 left = mid + 1;
             } else {
-                right = mid - 1;
+                right = mid;
+            }
+        }
+
+        for (int i = left; i < tables.size() && tables.get(i).getSmallestKey().compareTo(key) <= 0; i++) {
+            LookupResult result = tables.get(i).lookup(key, sequence);
+            if (result != null) {
+                return result;
             }
         }
 
@@ -283,16 +539,17 @@ public class LevelManager {
      * 有序插入SSTable
      */
     private void insertSortedSSTable(List<SSTable> tables, SSTable newTable) {
-        // 保持层级内SSTable按键范围有序
-        int insertPos = 0;
-        for (int i = 0; i < tables.size(); i++) {
-            if (newTable.getMinKey() < tables.get(i).getMinKey()) {
-                insertPos = i;
-                break;
+        // 保持层级内SSTable按最小键有序，二分定位插入位置
+        int left = 0, right = tables.size();
+        while (left < right) {
+            int mid = left + (right - left) / 2;
+            if (tables.get(mid).getSmallestKey().compareTo(newTable.getSmallestKey()) <= 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
             }
-            insertPos = i + 1;
         }
-        tables.add(insertPos, newTable);
+        tables.add(left, newTable);
     }
 
     /**
@@ -327,19 +584,67 @@ public class LevelManager {
 
     /**
      * 加载指定层级的SSTable
+     *
+     * Level 0按文件编号排序，越晚生成的文件越新，查找时从后往前；
+     * Level 1+按最小键排序。
      */
     private void loadSSTables(int level, Path levelDir) throws IOException {
+        List<SSTable> loaded = new ArrayList<>();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(levelDir, "*.dat")) {
             for (Path file : stream) {
+                nextFileNumber.accumulateAndGet(fileNumberOf(file), Math::max);
                 try {
-                    SSTable sstable = new SSTable(file, level);
-                    levels.get(level).add(sstable);
+                    SSTable sstable = new SSTable(file, level, blockCache, config.getReadMode(level));
+                    loaded.add(sstable);
                     logger.debug("Loaded SSTable: {}", file);
                 } catch (IOException e) {
                     logger.warn("Failed to load SSTable: {}", file, e);
                 }
             }
         }
+
+        if (level == 0) {
+            loaded.sort(Comparator.comparingLong(table -> fileNumberOf(table.getFilePath())));
+        } else {
+            loaded.sort(Comparator.comparing(SSTable::getSmallestKey));
+        }
+        levels.get(level).addAll(loaded);
+    }
+
+    /**
+     * 按清单加载指定层级的SSTable，并删除不在清单中的文件
+     *
+     * Level 0保持清单中从旧到新的顺序，Level 1+按最小键排序。
+     *
+     * @param fileNumbers 清单中记录的该层级的文件编号
+     */
+    private void loadSSTables(int level, Path levelDir, List<Long> fileNumbers) throws IOException {
+        Set<Long> live = new HashSet<>(fileNumbers);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(levelDir, "*.dat")) {
+            for (Path file : stream) {
+                long fileNumber = fileNumberOf(file);
+                nextFileNumber.accumulateAndGet(fileNumber, Math::max);
+                if (!live.contains(fileNumber)) {
+                    logger.info("Deleting SSTable not in manifest: {}", file);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        List<SSTable> loaded = new ArrayList<>(fileNumbers.size());
+        for (long fileNumber : fileNumbers) {
+            Path file = levelDir.resolve(String.format("sstable_%d.dat", fileNumber));
+            if (!Files.exists(file)) {
+                throw new IOException("SSTable listed in manifest is missing: " + file);
+            }
+            loaded.add(new SSTable(file, level, blockCache, config.getReadMode(level)));
+            logger.debug("Loaded SSTable: {}", file);
+        }
+
+        if (level > 0) {
+            loaded.sort(Comparator.comparing(SSTable::getSmallestKey));
+        }
+        levels.get(level).addAll(loaded);
     }
 
     /**
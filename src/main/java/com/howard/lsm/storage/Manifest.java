@@ -0,0 +1,89 @@
+package com.howard.lsm.storage;
+
+import com.howard.lsm.serialization.BinaryDecoder;
+import com.howard.lsm.serialization.BinaryEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 清单文件
+ *
+ * 记录每个层级当前有效的SSTable，是重启后判断哪些文件有效的唯一依据。
+ * 每次加入刷新结果或安装压缩结果时，先把完整的新清单写入临时文件并刷盘，
+ * 再原子地重命名为MANIFEST，重命名就是这次变更生效的时刻：
+ * - 崩溃发生在重命名之前：恢复后仍是旧的文件集合，已写出的新文件成为孤儿
+ * - 崩溃发生在重命名之后：恢复后是新的文件集合，被替换的输入文件成为孤儿
+ * 启动时只加载清单中的文件，孤儿文件直接删除。
+ */
+public class Manifest {
+    private static final Logger logger = LoggerFactory.getLogger(Manifest.class);
+
+    public static final String FILE_NAME = "MANIFEST";
+
+    private final Path file;
+    private final Path tempFile;
+    private final BinaryEncoder encoder = new BinaryEncoder();
+    private final BinaryDecoder decoder = new BinaryDecoder();
+
+    public Manifest(Path dataDirectory) {
+        this.file = dataDirectory.resolve(FILE_NAME);
+        this.tempFile = dataDirectory.resolve(FILE_NAME + ".tmp");
+    }
+
+    /**
+     * 读取清单
+     *
+     * @return 层级到文件编号列表的映射，Level 0从旧到新；清单不存在时返回null
+     */
+    public Map<Integer, List<Long>> read() throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return decoder.decodeManifest(Files.readAllBytes(file));
+    }
+
+    /**
+     * 原子地替换清单
+     *
+     * 返回时新清单已经持久化，崩溃后恢复的一定是这个版本或之后的版本。
+     *
+     * @param levels 层级到文件编号列表的映射，Level 0从旧到新
+     */
+    public void write(Map<Integer, List<Long>> levels) throws IOException {
+        Files.createDirectories(file.getParent());
+        byte[] data = encoder.encodeManifest(levels);
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    /**
+     * 刷新目录项，确保重命名本身也已持久化
+     */
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // 部分平台不支持打开目录，此时依赖文件系统自身的元数据顺序
+            logger.debug("Directory sync not supported for {}", file.getParent(), e);
+        }
+    }
+}
@@ -1,21 +1,21 @@
 package com.howard.lsm.transaction;
 
+import com.howard.lsm.core.Snapshot;
+import com.howard.lsm.core.WriteBatch;
 import lombok.Getter;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * 事务实现
  *
- * 支持快照隔离级别的事务：
- * 1. 读集验证
- * 2. 写集应用
- * 3. 锁管理
+ * 基于序列号快照的快照隔离：
+ * 1. 开始时创建快照，事务内的读取都通过这个快照，看不到之后提交的写入
+ * 2. 写入先缓存在写集中，事务内的读取能看到自己的写入
+ * 3. 提交时写集作为一个批次原子地写入，写入前检查写集中的键在快照之后
+ *    是否被修改过（写写冲突），有冲突则整个事务回滚
  */
 public class Transaction {
     @Getter
@@ -23,23 +23,24 @@ public class Transaction {
     private final TransactionManager manager;
     @Getter
     private final long startTimestamp;
+    /**
+     * -- GETTER --
+     *  获取事务开始时的快照
+     */
+    @Getter
+    private final Snapshot snapshot;
 
-    // 事务状态
-    private final Map<String, byte[]> readSet;
+    // 写集，值为null表示删除；保持写入顺序
     private final Map<String, byte[]> writeSet;
-    private final Set<String> deleteSet;
-    private final Set<String> lockedKeys;
 
     private volatile boolean active = true;
 
-    public Transaction(long id, TransactionManager manager) {
+    public Transaction(long id, TransactionManager manager, Snapshot snapshot) {
         this.id = id;
         this.manager = manager;
+        this.snapshot = snapshot;
         this.startTimestamp = System.currentTimeMillis();
-        this.readSet = new HashMap<>();
-        this.writeSet = new HashMap<>();
-        this.deleteSet = new HashSet<>();
-        this.lockedKeys = new HashSet<>();
+        this.writeSet = new LinkedHashMap<>();
     }
 
     /**
@@ -50,67 +51,64 @@ public class Transaction {
             throw new IllegalStateException("Transaction is not active");
         }
 
-        // 检查写集
+        // 检查写集（包括删除）
         if (writeSet.containsKey(key)) {
             return writeSet.get(key);
         }
 
-        // 检查删除集
-        if (deleteSet.contains(key)) {
-            return null;
-        }
-
-        // 从存储引擎读取
-        byte[] value = manager.getLSMTree().get(key);
-
-        // 添加到读集
-        readSet.put(key, value);
-
-        return value;
+        // 读取事务开始时的快照
+        return manager.getLSMTree().get(key, snapshot);
     }
 
     /**
      * 事务内写入
      */
-    public void put(String key, byte[] value) throws IOException {
+    public void put(String key, byte[] value) {
         if (!active) {
             throw new IllegalStateException("Transaction is not active");
         }
 
-        // 获取写锁
-        acquireWriteLock(key);
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null, use delete() for deletion");
+        }
 
-        // 添加到写集
         writeSet.put(key, value);
-        deleteSet.remove(key);
     }
 
     /**
      * 事务内删除
      */
-    public void delete(String key) throws IOException {
+    public void delete(String key) {
         if (!active) {
             throw new IllegalStateException("Transaction is not active");
         }
 
-        // 获取写锁
-        acquireWriteLock(key);
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
 
-        // 添加到删除集
-        deleteSet.add(key);
-        writeSet.remove(key);
+        writeSet.put(key, null);
     }
 
     /**
      * 提交事务
+     *
+     * @throws WriteConflictException 写集中的键在事务开始后被修改过，事务已回滚
      */
     public void commit() throws IOException {
         if (!active) {
             throw new IllegalStateException("Transaction is not active");
         }
 
-        manager.commitTransaction(this);
-        active = false;
+        try {
+            manager.commitTransaction(this);
+        } finally {
+            active = false;
+        }
     }
 
     /**
@@ -126,53 +124,25 @@ public class Transaction {
     }
 
     /**
-     * 验证读集
-     */
-    public void validateReadSet() throws IOException {
-        for (Map.Entry<String, byte[]> entry : readSet.entrySet()) {
-            String key = entry.getKey();
-            byte[] expectedValue = entry.getValue();
-            byte[] currentValue = manager.getLSMTree().get(key);
-
-            if (!java.util.Arrays.equals(expectedValue, currentValue)) {
-                throw new IOException("Read set validation failed for key: " + key);
-            }
-        }
-    }
-
-    /**
-     * 应用写集
+     * 把写集转换为写批次
      */
-    public void applyWriteSet() throws IOException {
-        // 应用写入
+    WriteBatch toWriteBatch() {
+        WriteBatch batch = new WriteBatch();
         for (Map.Entry<String, byte[]> entry : writeSet.entrySet()) {
-            manager.getLSMTree().put(entry.getKey(), entry.getValue());
-        }
-
-        // 应用删除
-        for (String key : deleteSet) {
-            manager.getLSMTree().delete(key);
+            if (entry.getValue() == null) {
+                batch.delete(entry.getKey());
+            } else {
+                batch.put(entry.getKey(), entry.getValue());
+            }
         }
+        return batch;
     }
 
     /**
-     * 获取写锁
+     * 丢弃写集并释放快照
      */
-    private void acquireWriteLock(String key) {
-        ReadWriteLock lock = manager.getKeyLock(key);
-        lock.writeLock().lock();
-        lockedKeys.add(key);
+    void release() {
+        writeSet.clear();
+        snapshot.close();
     }
-
-    /**
-     * 释放所有锁
-     */
-    public void releaseAllLocks() {
-        for (String key : lockedKeys) {
-            ReadWriteLock lock = manager.getKeyLock(key);
-            lock.writeLock().unlock();
-        }
-        lockedKeys.clear();
-    }
-
-}
\ No newline at end of file
+}
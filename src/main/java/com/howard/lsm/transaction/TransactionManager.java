@@ -7,17 +7,17 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * 事务管理器
  *
  * 提供ACID事务支持：
- * 1. 原子性：所有操作要么全部成功，要么全部失败
+ * 1. 原子性：写集作为一个批次写入，所有操作要么全部成功，要么全部失败
  * 2. 一致性：事务前后数据保持一致
- * 3. 隔离性：支持快照隔离级别
+ * 3. 隔离性：快照隔离，读取事务开始时的快照，提交时按序列号检查写写冲突
  * 4. 持久性：提交的事务保证持久化
+ *
+ * 事务执行期间不持有任何锁，提交只需要一次批量写入，不再逐个键重新读取和写入。
  */
 public class TransactionManager {
     private static final Logger logger = LoggerFactory.getLogger(TransactionManager.class);
@@ -25,13 +25,11 @@ public class TransactionManager {
     private final LSMTree lsmTree;
     private final AtomicLong transactionIdGenerator;
     private final ConcurrentHashMap<Long, Transaction> activeTransactions;
-    private final ConcurrentHashMap<String, ReadWriteLock> keyLocks;
 
     public TransactionManager(LSMTree lsmTree) {
         this.lsmTree = lsmTree;
         this.transactionIdGenerator = new AtomicLong(0);
         this.activeTransactions = new ConcurrentHashMap<>();
-        this.keyLocks = new ConcurrentHashMap<>();
     }
 
     /**
@@ -39,34 +37,33 @@ public class TransactionManager {
      */
     public Transaction beginTransaction() {
         long txId = transactionIdGenerator.incrementAndGet();
-        Transaction transaction = new Transaction(txId, this);
+        Transaction transaction = new Transaction(txId, this, lsmTree.getSnapshot());
         activeTransactions.put(txId, transaction);
 
-        logger.debug("Transaction {} started", txId);
+        logger.debug("Transaction {} started at sequence {}", txId, transaction.getSnapshot().getSequence());
         return transaction;
     }
 
     /**
      * 提交事务
+     *
+     * @throws WriteConflictException 写集中的键在事务开始后被修改过
      */
     public void commitTransaction(Transaction transaction) throws IOException {
         long txId = transaction.getId();
 
         try {
-            // 验证读集
-            transaction.validateReadSet();
-
-            // 应用写集
-            transaction.applyWriteSet();
-
-            // 从活跃事务中移除
-            activeTransactions.remove(txId);
-
+            lsmTree.write(transaction.toWriteBatch(), transaction.getSnapshot());
             logger.debug("Transaction {} committed successfully", txId);
 
+        } catch (WriteConflictException e) {
+            logger.debug("Transaction {} aborted: {}", txId, e.getMessage());
+            throw e;
         } catch (Exception e) {
-            rollbackTransaction(transaction);
             throw new IOException("Transaction commit failed", e);
+        } finally {
+            transaction.release();
+            activeTransactions.remove(txId);
         }
     }
 
@@ -77,10 +74,7 @@ public class TransactionManager {
         long txId = transaction.getId();
 
         try {
-            // 释放所有锁
-            transaction.releaseAllLocks();
-
-            // 从活跃事务中移除
+            transaction.release();
             activeTransactions.remove(txId);
 
             logger.debug("Transaction {} rolled back", txId);
@@ -91,10 +85,10 @@ public class TransactionManager {
     }
 
     /**
-     * 获取键锁
+     * 活跃事务的数量
      */
-    public ReadWriteLock getKeyLock(String key) {
-        return keyLocks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+    public int getActiveTransactionCount() {
+        return activeTransactions.size();
     }
 
     /**
@@ -103,4 +97,4 @@ public class TransactionManager {
     public LSMTree getLSMTree() {
         return lsmTree;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.howard.lsm.transaction;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * 写写冲突
+ *
+ * 事务提交时发现写集中的某个键在事务的快照之后已经被其他写入修改，
+ * 事务已经回滚，调用方可以重新开始事务重试。
+ */
+@Getter
+public class WriteConflictException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String key;
+
+    public WriteConflictException(String key) {
+        super("Write conflict on key: " + key);
+        this.key = key;
+    }
+}
@@ -77,6 +77,67 @@ public class ByteUtils {
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
+    /**
+     * 计算字符串UTF-8编码后的字节数，结果与getBytes(UTF_8)的长度一致
+     */
+    public static int utf8Length(String str) {
+        int length = str.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                bytes += 2; // 两个char编码为4个字节
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+            // 不成对的代理字符编码为'?'，占1个字节
+        }
+        return bytes;
+    }
+
+    /**
+     * 把字符串按UTF-8编码直接写入缓冲区，不创建中间的字节数组
+     *
+     * 编码结果与getBytes(UTF_8)完全相同，调用方需要保证缓冲区剩余空间
+     * 不少于utf8Length(str)。
+     *
+     * @return 写入的字节数
+     */
+    public static int putUtf8(ByteBuffer buffer, String str) {
+        int start = buffer.position();
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return buffer.position() - start;
+    }
+
     /**
      * 比较两个字节数组
      *
@@ -110,6 +171,23 @@ public class ByteUtils {
         return Integer.compare(a.length, b.length);
     }
 
+    /**
+     * 计算前缀的后继：大于所有以prefix开头的字符串的最小字符串，作为前缀查询的上界
+     *
+     * 去掉末尾的最大字符后把最后一个字符加一；prefix全部由最大字符组成（或为空）时
+     * 不存在这样的上界，返回null。
+     */
+    public static String prefixSuccessor(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
     /**
      * 检查两个字节数组是否相等
      */
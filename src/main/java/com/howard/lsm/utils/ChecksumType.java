@@ -0,0 +1,66 @@
+package com.howard.lsm.utils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * 校验和算法
+ *
+ * 磁盘上的每种格式都在版本号中记录了所用的算法：旧版本使用CRC32，
+ * 当前版本使用CRC32C。CRC32C在x86和ARM上都有硬件指令，JIT会把它编译为
+ * 内建实现，对直接缓冲区和映射文件也不需要先复制到字节数组。
+ *
+ * 每个线程复用各自的Checksum对象。字节数组和堆缓冲区直接在底层数组上计算，
+ * 不产生临时对象；直接缓冲区和映射缓冲区可能被多个线程共享，不能修改它们的
+ * 位置和界限，需要创建一个视图对象。
+ */
+public enum ChecksumType {
+    CRC32 {
+        @Override
+        public Checksum newChecksum() {
+            return new CRC32();
+        }
+    },
+    CRC32C {
+        @Override
+        public Checksum newChecksum() {
+            return new CRC32C();
+        }
+    };
+
+    private final ThreadLocal<Checksum> checksums = ThreadLocal.withInitial(this::newChecksum);
+
+    /**
+     * 创建一个新的校验和对象
+     */
+    public abstract Checksum newChecksum();
+
+    /**
+     * 计算缓冲区中[from, to)范围的校验和，不改变缓冲区的位置和界限
+     *
+     * 堆缓冲区直接使用底层数组；其他缓冲区在一个视图上计算，
+     * 这是唯一会产生临时对象的情况。
+     */
+    public int compute(ByteBuffer buffer, int from, int to) {
+        Checksum checksum = checksums.get();
+        checksum.reset();
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + from, to - from);
+        } else {
+            checksum.update(buffer.duplicate().limit(to).position(from));
+        }
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * 计算字节数组中指定范围的校验和
+     */
+    public int compute(byte[] data, int offset, int length) {
+        Checksum checksum = checksums.get();
+        checksum.reset();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+}
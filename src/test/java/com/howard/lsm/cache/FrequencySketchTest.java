@@ -0,0 +1,59 @@
+package com.howard.lsm.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencySketchTest {
+
+    @Test
+    void resizeKeepsFrequencies() {
+        FrequencySketch sketch = new FrequencySketch();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 8; j++) {
+                sketch.increment("hot-" + i);
+            }
+        }
+        int[] before = new int[10];
+        for (int i = 0; i < 10; i++) {
+            before[i] = sketch.frequency("hot-" + i);
+            assertTrue(before[i] >= 8);
+        }
+
+        sketch.ensureCapacity(1 << 12);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(before[i], sketch.frequency("hot-" + i));
+        }
+    }
+
+    /**
+     * 缓存随条目增多反复扩容计数器表，期间的一次性扫描不能挤掉热点
+     */
+    @Test
+    void hotKeysSurviveScanAcrossResizes() {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(200, (key, value) -> 1);
+        for (int i = 0; i < 10; i++) {
+            cache.put("hot-" + i, "v");
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(cache.get("hot-" + i));
+            }
+            // 写入会回放读缓冲区中的访问记录
+            cache.put("filler-" + round, "v");
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan-" + i, "v");
+        }
+
+        int survived = 0;
+        for (int i = 0; i < 10; i++) {
+            if (cache.get("hot-" + i) != null) {
+                survived++;
+            }
+        }
+        assertEquals(10, survived);
+    }
+}
@@ -0,0 +1,112 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.cache.BlockCache;
+import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.storage.LevelManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 压缩输出的切分
+ */
+class CompactionManagerTest {
+    private static final int KEYS = 2000;
+    private static final long TARGET_FILE_SIZE = 16 * 1024;
+
+    @TempDir
+    Path dataDir;
+
+    private final List<SSTable> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (SSTable table : opened) {
+            table.close();
+        }
+    }
+
+    /**
+     * 覆盖整个键空间的范围删除之后又写入了大量新数据（租户过期后重新写入）：
+     * 范围删除在切换文件处切开，输出仍然按targetFileSize切分，文件之间互不重叠，
+     * 范围删除之前的旧数据对最新的读取仍然被遮盖
+     */
+    @Test
+    void wideRangeTombstoneIsSplitAcrossOutputFiles() throws IOException {
+        LSMConfig config = new LSMConfig();
+        config.setDataDirectory(dataDir.toString());
+        config.setTargetFileSize(TARGET_FILE_SIZE);
+        config.setLevel0FileThreshold(2);
+        LevelManager levels = new LevelManager(config, new BlockCache(1 << 20, 1));
+        levels.loadExistingSSTables();
+
+        // 最旧的文件：范围删除之前写入的数据
+        SSTableBuilder old = levels.newSSTableBuilder(0);
+        for (int i = 0; i < KEYS; i += 2) {
+            old.add(new InternalKey(key(i), 1, ValueType.VALUE), bytes("old"));
+        }
+        levels.addSSTable(track(old.finish()), 0);
+
+        // 较新的文件：删除整个键空间，之后只重新写入奇数键
+        SSTableBuilder recent = levels.newSSTableBuilder(0);
+        recent.addRangeTombstone(new RangeTombstone(key(0), key(KEYS), 2));
+        for (int i = 1; i < KEYS; i += 2) {
+            recent.add(new InternalKey(key(i), 3 + i, ValueType.VALUE), bytes("value-" + i + "-".repeat(40)));
+        }
+        levels.addSSTable(track(recent.finish()), 0);
+
+        // 比范围删除旧的快照让最底层也必须保留范围删除
+        SnapshotList snapshots = new SnapshotList();
+        snapshots.create(1);
+        CompactionManager compaction = new CompactionManager(config, levels, snapshots);
+        compaction.start();
+        compaction.triggerCompaction();
+        compaction.stop();
+
+        assertTrue(levels.selectCompactionCandidates(0).isEmpty(), "level 0 should be compacted");
+        List<SSTable> outputs = levels.getOverlappingSSTables(1, "", "￿");
+        opened.addAll(outputs);
+        assertTrue(outputs.size() > 1, "output should be split, got " + outputs.size() + " file(s)");
+
+        for (int i = 0; i < outputs.size(); i++) {
+            SSTable table = outputs.get(i);
+            assertTrue(table.getFileSize() < 2 * TARGET_FILE_SIZE,
+                    "output " + i + " is " + table.getFileSize() + " bytes");
+            assertFalse(table.getRangeTombstones().isEmpty(), "every output carries its piece of the tombstone");
+            if (i > 0) {
+                assertTrue(outputs.get(i - 1).getLargestKey().compareTo(table.getSmallestKey()) <= 0,
+                        "outputs " + (i - 1) + " and " + i + " overlap");
+            }
+        }
+
+        for (int i = 0; i < KEYS; i++) {
+            byte[] value = levels.get(key(i));
+            if (i % 2 == 0) {
+                assertNull(value, key(i));
+            } else {
+                assertArrayEquals(bytes("value-" + i + "-".repeat(40)), value, key(i));
+            }
+        }
+    }
+
+    private SSTable track(SSTable table) {
+        opened.add(table);
+        return table;
+    }
+
+    private static String key(int i) {
+        return String.format("key%05d", i);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.howard.lsm.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 增量加入的范围删除索引与一次构建的索引结果一致
+ */
+class ConcurrentRangeTombstoneSetTest {
+
+    @Test
+    void matchesRangeTombstoneSetAfterEveryAdd() {
+        Random random = new Random(42);
+        ConcurrentRangeTombstoneSet incremental = new ConcurrentRangeTombstoneSet();
+        List<RangeTombstone> added = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            String start = key(random.nextInt(100));
+            String end = key(random.nextInt(100));
+            // 序列号大体递增，偶尔乱序，覆盖WAL中批次交错的情况
+            long sequence = i * 10L + random.nextInt(25) + 1;
+            RangeTombstone tombstone = new RangeTombstone(start, end, sequence);
+            incremental.add(tombstone);
+            added.add(tombstone);
+
+            RangeTombstoneSet expected = new RangeTombstoneSet(added);
+            for (int k = -1; k <= 100; k++) {
+                String key = k < 0 ? "" : key(k);
+                long snapshot = random.nextInt(2100);
+                assertEquals(expected.maxCoveringSequence(key, InternalKey.MAX_SEQUENCE),
+                        incremental.maxCoveringSequence(key, InternalKey.MAX_SEQUENCE), key);
+                assertEquals(expected.maxCoveringSequence(key, snapshot),
+                        incremental.maxCoveringSequence(key, snapshot), key + "@" + snapshot);
+            }
+        }
+        assertEquals(added.size(), incremental.getTombstones().size());
+    }
+
+    @Test
+    void endKeyIsExclusive() {
+        ConcurrentRangeTombstoneSet set = new ConcurrentRangeTombstoneSet();
+        assertTrue(set.isEmpty());
+        set.add(new RangeTombstone("b", "d", 5));
+
+        assertFalse(set.isEmpty());
+        assertEquals(0, set.maxCoveringSequence("a", 10));
+        assertEquals(5, set.maxCoveringSequence("b", 10));
+        assertEquals(5, set.maxCoveringSequence("c", 10));
+        assertEquals(0, set.maxCoveringSequence("d", 10));
+        assertEquals(0, set.maxCoveringSequence("c", 4));
+    }
+
+    private static String key(int i) {
+        return String.format("key%03d", i);
+    }
+}
@@ -0,0 +1,82 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.config.LSMConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 元数据段的校验和：任何一个字节损坏都在打开文件时发现
+ */
+class SSTableChecksumTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void corruptedBlockIndexIsRejected() throws IOException {
+        Path file = build();
+        SSTable.Footer footer = readFooter(file);
+        flipByte(file, footer.indexOffset + footer.indexSize / 2);
+
+        IOException e = assertThrows(IOException.class, () -> new SSTable(file, 0));
+        assertTrue(causeMessage(e).contains("Block index checksum mismatch"), causeMessage(e));
+    }
+
+    @Test
+    void corruptedBloomFilterIsRejected() throws IOException {
+        Path file = build();
+        SSTable.Footer footer = readFooter(file);
+        flipByte(file, footer.bloomOffset + footer.bloomSize / 2);
+
+        IOException e = assertThrows(IOException.class, () -> new SSTable(file, 0));
+        assertTrue(causeMessage(e).contains("Bloom filter checksum mismatch"), causeMessage(e));
+    }
+
+    private Path build() throws IOException {
+        Path file = dir.resolve("sstable_1.dat");
+        SSTableBuilder builder = new SSTableBuilder(file, 0, new LSMConfig(), null);
+        for (int i = 0; i < 100; i++) {
+            builder.add(new InternalKey(String.format("key%03d", i), i + 1, ValueType.VALUE),
+                    ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        builder.finish().close();
+
+        // 未损坏的文件可以正常打开
+        SSTable table = new SSTable(file, 0);
+        try {
+            assertArrayEquals("value42".getBytes(StandardCharsets.UTF_8), table.get("key042"));
+        } finally {
+            table.close();
+        }
+        return file;
+    }
+
+    private static SSTable.Footer readFooter(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SSTable.FOOTER_SIZE);
+            channel.read(buffer, channel.size() - SSTable.FOOTER_SIZE);
+            return SSTable.Footer.decode(buffer.flip());
+        }
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) (buffer.get(0) ^ 0x10));
+            channel.write(buffer.rewind(), position);
+        }
+    }
+
+    private static String causeMessage(IOException e) {
+        return e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+    }
+}
@@ -0,0 +1,59 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.config.LSMConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 冲突检查使用的最新序列号，覆盖键的范围删除也算作一个版本
+ */
+class SSTableLatestSequenceTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void coveringRangeTombstoneCountsAsVersion() throws IOException {
+        SSTableBuilder builder = new SSTableBuilder(dir.resolve("sstable_1.dat"), 0, new LSMConfig(), null);
+        builder.add(new InternalKey("b", 3, ValueType.VALUE), value());
+        builder.add(new InternalKey("k", 2, ValueType.VALUE), value());
+        builder.add(new InternalKey("x", 8, ValueType.VALUE), value());
+        builder.addRangeTombstone(new RangeTombstone("a", "m", 5));
+
+        SSTable table = builder.finish();
+        try {
+            // 范围删除比点写入新
+            assertEquals(5, table.getLatestSequence("k"));
+            // 点写入比范围删除新
+            assertEquals(8, table.getLatestSequence("x"));
+            // 表中没有这个键，只有范围删除
+            assertEquals(5, table.getLatestSequence("c"));
+            // 既没有这个键，也没有覆盖它的范围删除
+            assertEquals(-1, table.getLatestSequence("n"));
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    void coveringRangeTombstoneInMemTableCountsAsVersion() {
+        MemTable memTable = new MemTable(new LSMConfig());
+        memTable.put("k", 2, value());
+        memTable.put("x", 8, value());
+        memTable.deleteRange("a", "m", 5);
+
+        assertEquals(5, memTable.getLatestSequence("k"));
+        assertEquals(8, memTable.getLatestSequence("x"));
+        assertEquals(5, memTable.getLatestSequence("c"));
+        assertEquals(-1, memTable.getLatestSequence("n"));
+    }
+
+    private static byte[] value() {
+        return "value".getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,59 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.config.ReadMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 映射方式读取数据块
+ */
+class SSTableMmapTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * 第一次访问后破坏块的校验和：已经打开的表不再重新计算校验和，
+     * 新打开的表在第一次访问时发现损坏。
+     */
+    @Test
+    void mappedBlockChecksumIsVerifiedOnlyOnce() throws IOException {
+        Path file = dir.resolve("sstable_1.dat");
+        SSTableBuilder builder = new SSTableBuilder(file, 0, new LSMConfig(), null);
+        builder.add(new InternalKey("key", 1, ValueType.VALUE), "value".getBytes(StandardCharsets.UTF_8));
+        // 只有一个数据块，位于文件开头，以校验和结尾
+        long blockSize = builder.getFileSize();
+        builder.finish().close();
+
+        SSTable table = new SSTable(file, 0, null, ReadMode.MMAP);
+        try {
+            assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), table.get("key"));
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, 0xDEADBEEF), blockSize - 4);
+            }
+
+            assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), table.get("key"));
+            assertArrayEquals("value".getBytes(StandardCharsets.UTF_8),
+                    table.lookup("key", InternalKey.MAX_SEQUENCE).getValue());
+        } finally {
+            table.close();
+        }
+
+        SSTable reopened = new SSTable(file, 0, null, ReadMode.MMAP);
+        try {
+            assertThrows(IOException.class, () -> reopened.get("key"));
+        } finally {
+            reopened.close();
+        }
+    }
+}
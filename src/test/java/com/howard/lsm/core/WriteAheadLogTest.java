@@ -0,0 +1,54 @@
+package com.howard.lsm.core;
+
+import com.howard.lsm.config.LSMConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 写前日志的写入与恢复
+ */
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * 超过最大条目长度的记录在每条写入路径上都被拒绝，不会写入文件，
+     * 之后的记录在恢复时仍然可见
+     */
+    @Test
+    void oversizedEntryIsRejectedOnEveryAppendPath() throws IOException {
+        LSMConfig config = new LSMConfig();
+        config.setWalDirectory(dir.toString());
+        byte[] oversized = new byte[10 * 1024 * 1024 + 1];
+
+        try (WriteAheadLog wal = new WriteAheadLog(config)) {
+            wal.append(1, "a", bytes("1"));
+            assertThrows(IllegalArgumentException.class, () -> wal.append(2, "big", oversized));
+            assertThrows(IllegalArgumentException.class, () -> wal.appendAsync(2, "big", oversized));
+            assertThrows(IllegalArgumentException.class,
+                    () -> wal.appendBatch(2, new WriteBatch().put("big", oversized)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> wal.appendBatchAsync(2, new WriteBatch().put("big", oversized)));
+            assertFalse(wal.hasPendingAsyncWrites());
+            wal.append(2, "b", bytes("2"));
+        }
+
+        MemTable memTable = new MemTable(config);
+        try (WriteAheadLog wal = new WriteAheadLog(config)) {
+            assertEquals(2, wal.recover(memTable, 0));
+        }
+        assertArrayEquals(bytes("1"), memTable.get("a"));
+        assertArrayEquals(bytes("2"), memTable.get("b"));
+        assertNull(memTable.get("big"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,126 @@
+package com.howard.lsm.storage;
+
+import com.howard.lsm.cache.BlockCache;
+import com.howard.lsm.config.LSMConfig;
+import com.howard.lsm.core.InternalKey;
+import com.howard.lsm.core.SSTable;
+import com.howard.lsm.core.SSTableBuilder;
+import com.howard.lsm.core.ValueType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 压缩安装过程中崩溃后的恢复
+ *
+ * 压缩分三步：写出新文件、写入清单、删除旧文件。在任意两步之间崩溃，
+ * 重启后看到的都必须恰好是其中一个版本的文件集合。
+ */
+class LevelManagerRecoveryTest {
+    @TempDir
+    Path dataDir;
+
+    private LSMConfig config;
+    private final List<SSTable> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        config = new LSMConfig();
+        config.setDataDirectory(dataDir.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (SSTable table : opened) {
+            table.close();
+        }
+    }
+
+    @Test
+    void crashBeforeManifestKeepsInputsAndDropsOutputs() throws IOException {
+        LevelManager levels = open();
+        List<SSTable> inputs = List.of(
+                build(levels, 0, "a", "old-a"),
+                build(levels, 0, "b", "old-b"));
+        for (SSTable input : inputs) {
+            levels.addSSTable(input, 0);
+        }
+
+        // 压缩输出已经写出，但在写入清单之前崩溃
+        SSTable output = build(levels, 1, "a", "new-a");
+
+        LevelManager recovered = open();
+        assertEquals("old-a", get(recovered, "a"));
+        assertEquals("old-b", get(recovered, "b"));
+        assertFalse(Files.exists(output.getFilePath()), "uninstalled output should be deleted");
+        for (SSTable input : inputs) {
+            assertTrue(Files.exists(input.getFilePath()));
+        }
+        assertTrue(recovered.selectCompactionCandidates(1).isEmpty());
+    }
+
+    @Test
+    void crashAfterManifestDropsStaleInputs() throws IOException {
+        LevelManager levels = open();
+        List<SSTable> inputs = List.of(
+                build(levels, 0, "a", "old-a"),
+                build(levels, 0, "a", "newer-a"));
+        for (SSTable input : inputs) {
+            levels.addSSTable(input, 0);
+        }
+        assertEquals("newer-a", get(levels, "a"));
+
+        // 清单已经切换到输出文件，但在删除输入文件之前崩溃
+        SSTable output = build(levels, 1, "a", "compacted-a");
+        levels.replaceFiles(0, inputs, 1, List.of(output));
+
+        LevelManager recovered = open();
+        assertEquals("compacted-a", get(recovered, "a"));
+        assertTrue(recovered.selectCompactionCandidates(0).isEmpty());
+        for (SSTable input : inputs) {
+            assertFalse(Files.exists(input.getFilePath()), "stale input should be deleted");
+        }
+        assertTrue(Files.exists(output.getFilePath()));
+    }
+
+    @Test
+    void level0OrderSurvivesRestart() throws IOException {
+        LevelManager levels = open();
+        levels.addSSTable(build(levels, 0, "k", "first"), 0);
+        levels.addSSTable(build(levels, 0, "k", "second"), 0);
+
+        assertEquals("second", get(open(), "k"));
+    }
+
+    private LevelManager open() throws IOException {
+        LevelManager levels = new LevelManager(config, new BlockCache(1 << 20, 1));
+        levels.loadExistingSSTables();
+        for (int level = 0; level < config.getMaxLevel(); level++) {
+            opened.addAll(levels.selectCompactionCandidates(level));
+        }
+        return levels;
+    }
+
+    private SSTable build(LevelManager levels, int level, String key, String value) throws IOException {
+        SSTableBuilder builder = levels.newSSTableBuilder(level);
+        builder.add(new InternalKey(key, 1, ValueType.VALUE), value.getBytes(StandardCharsets.UTF_8));
+        SSTable table = builder.finish();
+        opened.add(table);
+        return table;
+    }
+
+    private static String get(LevelManager levels, String key) throws IOException {
+        byte[] value = levels.get(key);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
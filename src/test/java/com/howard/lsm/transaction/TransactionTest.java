@@ -0,0 +1,88 @@
+package com.howard.lsm.transaction;
+
+import com.howard.lsm.LSMTree;
+import com.howard.lsm.config.LSMConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 事务提交时的写写冲突检查
+ */
+class TransactionTest {
+    @TempDir
+    Path dir;
+
+    private LSMTree tree;
+    private TransactionManager transactions;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        LSMConfig config = new LSMConfig();
+        config.setDataDirectory(dir.resolve("data").toString());
+        config.setWalDirectory(dir.resolve("wal").toString());
+        tree = new LSMTree(config);
+        transactions = tree.getTransactionManager();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        tree.close();
+    }
+
+    @Test
+    void concurrentPutConflicts() throws IOException {
+        tree.put("k", bytes("v1"));
+
+        Transaction tx = transactions.beginTransaction();
+        assertArrayEquals(bytes("v1"), tx.get("k"));
+        tree.put("k", bytes("v2"));
+        tx.put("k", bytes("tx"));
+
+        WriteConflictException e = assertThrows(WriteConflictException.class, tx::commit);
+        assertEquals("k", e.getKey());
+        assertArrayEquals(bytes("v2"), tree.get("k"));
+    }
+
+    /**
+     * 快照之后的范围删除覆盖了事务写入的键：这个键已经被并发修改，
+     * 提交必须失败，否则范围删除会被事务的写入悄悄撤销
+     */
+    @Test
+    void concurrentDeleteRangeConflicts() throws IOException {
+        tree.put("k", bytes("v1"));
+
+        Transaction tx = transactions.beginTransaction();
+        assertArrayEquals(bytes("v1"), tx.get("k"));
+        tree.deleteRange("a", "z");
+        tx.put("k", bytes("tx"));
+
+        WriteConflictException e = assertThrows(WriteConflictException.class, tx::commit);
+        assertEquals("k", e.getKey());
+        assertNull(tree.get("k"));
+    }
+
+    @Test
+    void deleteRangeNotCoveringKeyDoesNotConflict() throws IOException {
+        tree.put("k", bytes("v1"));
+
+        Transaction tx = transactions.beginTransaction();
+        assertArrayEquals(bytes("v1"), tx.get("k"));
+        tree.deleteRange("a", "k");
+        tx.put("k", bytes("tx"));
+
+        tx.commit();
+        assertArrayEquals(bytes("tx"), tree.get("k"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}